@@ -0,0 +1,126 @@
+package net.pixpark.fbexample;
+
+import static org.junit.Assert.*;
+
+import android.content.Context;
+import android.util.Log;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import net.pixpark.facebetter.BeautyEffectEngine;
+import net.pixpark.facebetter.BeautyParams.BasicParam;
+import net.pixpark.facebetter.ImageFrame;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Measures the per-frame work outside the beauty pass for a 720p front camera frame: the upright
+ * copy CameraFrame.copyFrom makes into its pooled buffers, plus the engine frame created from it
+ * and released after processing. The engine has no way to refill a frame, so that one is
+ * allocated per frame. Both are logged against the beauty pass and the 30 fps frame budget.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CameraFrameWrapBenchmark {
+  private static final String TAG = "CameraFrameWrapBench";
+  private static final int WIDTH = 1280;
+  private static final int HEIGHT = 720;
+  private static final int WARMUP = 10;
+  private static final int ITERATIONS = 100;
+  private static final long FRAME_BUDGET_NS = 1_000_000_000L / 30;
+
+  private final ByteBuffer mY = filled(WIDTH * HEIGHT, 0x80);
+  private final ByteBuffer mU = filled(WIDTH * HEIGHT / 4, 0x40);
+  private final ByteBuffer mV = filled(WIDTH * HEIGHT / 4, 0xC0);
+  // Pooled in CameraFrame, so allocated once here too
+  private final ByteBuffer mOutY = ByteBuffer.allocateDirect(WIDTH * HEIGHT);
+  private final ByteBuffer mOutU = ByteBuffer.allocateDirect(WIDTH * HEIGHT / 4);
+  private final ByteBuffer mOutV = ByteBuffer.allocateDirect(WIDTH * HEIGHT / 4);
+  private final byte[] mRow = new byte[WIDTH];
+  private final OrientationTransform mFront = OrientationTransform.forCamera(270, true, true);
+  private BeautyEffectEngine mEngine;
+
+  @Before
+  public void setUp() {
+    Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    BeautyEffectEngine.EngineConfig config = new BeautyEffectEngine.EngineConfig();
+    config.appId = "dddb24155fd045ab9c2d8aad83ad3a4a";
+    config.appKey = "-VINb6KRgm5ROMR6DlaIjVBO9CDvwsxRopNvtIbUyLc";
+    mEngine = new BeautyEffectEngine(context, config);
+    mEngine.setBeautyParam(BasicParam.SMOOTHING, 0.5f);
+  }
+
+  @After
+  public void tearDown() {
+    if (mEngine != null) {
+      mEngine.release();
+    }
+  }
+
+  @Test
+  public void perFrameWrap_isSmallNextToTheBeautyPass() {
+    long copyNs = measure(this::copy);
+    long wrapNs = measure(() -> wrap().release());
+
+    ImageFrame source = wrap();
+    long processNs;
+    try {
+      processNs = measure(() -> {
+        ImageFrame output = mEngine.processImage(source);
+        if (output != null) {
+          output.release();
+        }
+      });
+    } finally {
+      source.release();
+    }
+
+    Log.i(TAG, String.format(Locale.US,
+        "%dx%d per frame: copy=%.3fms copy+engine frame=%.3fms (%.1f%% of the %.1fms budget) "
+            + "process=%.3fms",
+        WIDTH, HEIGHT, copyNs / 1e6, wrapNs / 1e6, 100.0 * wrapNs / FRAME_BUDGET_NS,
+        FRAME_BUDGET_NS / 1e6, processNs / 1e6));
+    assertTrue("wrap takes " + wrapNs / 1e6 + "ms per frame, process " + processNs / 1e6 + "ms",
+        wrapNs < processNs);
+  }
+
+  /** What CameraFrame.copyFrom does for a front camera frame. */
+  private void copy() {
+    mFront.copyPlane(mY, WIDTH, 1, WIDTH, HEIGHT, mOutY, mRow);
+    mFront.copyPlane(mU, WIDTH / 2, 1, WIDTH / 2, HEIGHT / 2, mOutU, mRow);
+    mFront.copyPlane(mV, WIDTH / 2, 1, WIDTH / 2, HEIGHT / 2, mOutV, mRow);
+  }
+
+  /** The copy plus the engine frame CameraFrame.toImageFrame creates from it. */
+  private ImageFrame wrap() {
+    copy();
+    ImageFrame frame = ImageFrame.createWithAndroid420(
+        HEIGHT, WIDTH, mOutY, HEIGHT, mOutU, HEIGHT / 2, mOutV, HEIGHT / 2, 1);
+    assertNotNull(frame);
+    frame.type = ImageFrame.FrameType.VIDEO;
+    return frame;
+  }
+
+  /** Average time per run. */
+  private static long measure(Runnable run) {
+    for (int i = 0; i < WARMUP; i++) {
+      run.run();
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) {
+      run.run();
+    }
+    return (System.nanoTime() - start) / ITERATIONS;
+  }
+
+  private static ByteBuffer filled(int size, int value) {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+    for (int i = 0; i < size; i++) {
+      buffer.put((byte) value);
+    }
+    buffer.flip();
+    return buffer;
+  }
+}
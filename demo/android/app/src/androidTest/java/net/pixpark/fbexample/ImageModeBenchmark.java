@@ -0,0 +1,109 @@
+package net.pixpark.fbexample;
+
+import static org.junit.Assert.*;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.util.Log;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import net.pixpark.facebetter.BeautyEffectEngine;
+import net.pixpark.facebetter.BeautyParams.BasicParam;
+import net.pixpark.facebetter.ImageFrame;
+import java.util.Locale;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Measures the cost of one slider tick in image mode on a 1080p photo: re-wrapping the bitmap on
+ * every tick (old path) against reusing the source frame built when the image was selected.
+ * Results are written to logcat.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ImageModeBenchmark {
+  private static final String TAG = "ImageModeBenchmark";
+  private static final int WIDTH = 1080;
+  private static final int HEIGHT = 1920;
+  private static final int WARMUP = 5;
+  private static final int TICKS = 50;
+
+  private BeautyEffectEngine mEngine;
+  private Bitmap mBitmap;
+
+  @Before
+  public void setUp() {
+    Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    BeautyEffectEngine.EngineConfig config = new BeautyEffectEngine.EngineConfig();
+    config.appId = "dddb24155fd045ab9c2d8aad83ad3a4a";
+    config.appKey = "-VINb6KRgm5ROMR6DlaIjVBO9CDvwsxRopNvtIbUyLc";
+    mEngine = new BeautyEffectEngine(context, config);
+
+    mBitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+    mBitmap.eraseColor(Color.rgb(200, 160, 140));
+  }
+
+  @After
+  public void tearDown() {
+    if (mEngine != null) {
+      mEngine.release();
+    }
+    if (mBitmap != null) {
+      mBitmap.recycle();
+    }
+  }
+
+  @Test
+  public void sliderTick_rewrapBitmap_vs_cachedSourceFrame() {
+    long rewrapNs = measure(() -> {
+      ImageFrame input = ImageFrame.createWithBitmap(mBitmap);
+      assertNotNull(input);
+      input.type = ImageFrame.FrameType.IMAGE;
+      processAndRelease(input);
+      input.release();
+    });
+
+    ImageFrame cached = ImageFrame.createWithBitmap(mBitmap);
+    assertNotNull(cached);
+    cached.type = ImageFrame.FrameType.IMAGE;
+    long cachedNs;
+    try {
+      cachedNs = measure(() -> processAndRelease(cached));
+    } finally {
+      cached.release();
+    }
+
+    Log.i(TAG, String.format(Locale.US,
+        "%dx%d per slider tick: rewrap=%.3fms cached source=%.3fms (saved %.3fms)", WIDTH, HEIGHT,
+        rewrapNs / 1e6, cachedNs / 1e6, (rewrapNs - cachedNs) / 1e6));
+    assertTrue(rewrapNs > 0 && cachedNs > 0);
+  }
+
+  private int mTick = 0;
+
+  /** Average time per tick, changing a parameter before each one like a moving slider. */
+  private long measure(Runnable tick) {
+    for (int i = 0; i < WARMUP; i++) {
+      runTick(tick);
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < TICKS; i++) {
+      runTick(tick);
+    }
+    return (System.nanoTime() - start) / TICKS;
+  }
+
+  private void runTick(Runnable tick) {
+    mEngine.setBeautyParam(BasicParam.SMOOTHING, (mTick++ % 100) / 100.0f);
+    tick.run();
+  }
+
+  private void processAndRelease(ImageFrame input) {
+    ImageFrame output = mEngine.processImage(input);
+    if (output != null) {
+      output.release();
+    }
+  }
+}
@@ -0,0 +1,98 @@
+package net.pixpark.fbexample;
+
+import static org.junit.Assert.*;
+
+import android.util.Log;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import net.pixpark.facebetter.ImageFrame;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Measures the CPU cost of orienting a 720p front camera frame: the engine's rotate then mirror,
+ * two passes after creating the frame, against OrientationTransform.copyPlane, which rotates and
+ * mirrors while copying the planes, as CameraFrame does. Results are written to logcat.
+ */
+@RunWith(AndroidJUnit4.class)
+public class OrientationTransformBenchmark {
+  private static final String TAG = "OrientationBenchmark";
+  private static final int WIDTH = 1280;
+  private static final int HEIGHT = 720;
+  private static final int WARMUP = 10;
+  private static final int ITERATIONS = 100;
+
+  private final ByteBuffer mY = filled(WIDTH * HEIGHT, 0x80);
+  private final ByteBuffer mU = filled(WIDTH * HEIGHT / 4, 0x40);
+  private final ByteBuffer mV = filled(WIDTH * HEIGHT / 4, 0xC0);
+  private final ByteBuffer mOutY = ByteBuffer.allocateDirect(WIDTH * HEIGHT);
+  private final ByteBuffer mOutU = ByteBuffer.allocateDirect(WIDTH * HEIGHT / 4);
+  private final ByteBuffer mOutV = ByteBuffer.allocateDirect(WIDTH * HEIGHT / 4);
+  private final byte[] mRow = new byte[WIDTH];
+  private final OrientationTransform mFront = OrientationTransform.forCamera(270, true, true);
+
+  @Test
+  public void engineRotateAndMirror_vs_fusedCopy() {
+    long createNs = measure(this::createOnly);
+    long engineNs = measure(this::engineRotateAndMirror);
+    long fusedNs = measure(this::fusedCopy);
+
+    Log.i(TAG, String.format(Locale.US,
+        "%dx%d front camera per frame: create=%.3fms create+rotate+mirror=%.3fms "
+            + "(passes %.3fms) fused copy+create=%.3fms (copy %.3fms)",
+        WIDTH, HEIGHT, createNs / 1e6, engineNs / 1e6, Math.max(0, engineNs - createNs) / 1e6,
+        fusedNs / 1e6, Math.max(0, fusedNs - createNs) / 1e6));
+    assertTrue(createNs > 0);
+  }
+
+  private void createOnly() {
+    create(mY, mU, mV, WIDTH, HEIGHT).release();
+  }
+
+  private void engineRotateAndMirror() {
+    ImageFrame frame = create(mY, mU, mV, WIDTH, HEIGHT);
+    try {
+      frame.rotate(ImageFrame.Rotation.ROTATION_270);
+      frame.mirror("horizontal");
+    } finally {
+      frame.release();
+    }
+  }
+
+  private void fusedCopy() {
+    mFront.copyPlane(mY, WIDTH, 1, WIDTH, HEIGHT, mOutY, mRow);
+    mFront.copyPlane(mU, WIDTH / 2, 1, WIDTH / 2, HEIGHT / 2, mOutU, mRow);
+    mFront.copyPlane(mV, WIDTH / 2, 1, WIDTH / 2, HEIGHT / 2, mOutV, mRow);
+    create(mOutY, mOutU, mOutV, HEIGHT, WIDTH).release();
+  }
+
+  private static ImageFrame create(ByteBuffer y, ByteBuffer u, ByteBuffer v, int width,
+      int height) {
+    ImageFrame frame = ImageFrame.createWithAndroid420(
+        width, height, y, width, u, width / 2, v, width / 2, 1);
+    assertNotNull(frame);
+    return frame;
+  }
+
+  /** Average time per run. */
+  private static long measure(Runnable run) {
+    for (int i = 0; i < WARMUP; i++) {
+      run.run();
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) {
+      run.run();
+    }
+    return (System.nanoTime() - start) / ITERATIONS;
+  }
+
+  private static ByteBuffer filled(int size, int value) {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+    for (int i = 0; i < size; i++) {
+      buffer.put((byte) value);
+    }
+    buffer.flip();
+    return buffer;
+  }
+}
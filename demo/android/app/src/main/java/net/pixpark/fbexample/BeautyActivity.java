@@ -10,15 +10,18 @@ import android.graphics.BitmapFactory;
 import android.media.Image;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Environment;
 import android.provider.MediaStore;
 import android.util.Log;
 import android.view.View;
 import android.view.WindowManager;
+import android.widget.EditText;
 import android.widget.FrameLayout;
 import android.widget.Toast;
 import androidx.activity.EdgeToEdge;
 import androidx.activity.result.ActivityResultLauncher;
 import androidx.activity.result.contract.ActivityResultContracts;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
@@ -32,31 +35,93 @@ import net.pixpark.fbexample.beautypanel.BeautyBarHandler;
 import net.pixpark.fbexample.beautypanel.BeautyBarListener;
 import net.pixpark.fbexample.beautypanel.BeautyPanelController;
 import net.pixpark.fbexample.beautypanel.BeautyParamApplier;
-
+import net.pixpark.fbexample.beautypanel.BeautyParamSnapshot;
+import net.pixpark.fbexample.beautypanel.BeautyPreset;
+import net.pixpark.fbexample.beautypanel.BeautyPresetStore;
+import net.pixpark.fbexample.beautypanel.ParamDispatcher;
+import net.pixpark.fbexample.beautypanel.StickerCatalog;
+
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
-import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class BeautyActivity extends AppCompatActivity implements GLI420Renderer.FrameProvider {
   private static final String TAG = "BeautyActivity";
   private static final int CAMERA_PERMISSION_REQUEST_CODE = 200;
+  // Camera frames waiting for the processor; older ones are dropped beyond this
+  private static final int PROCESSOR_QUEUE_CAPACITY = 2;
+  // Room for the queued frames plus the ones being copied and wrapped at 1080p
+  private static final long MAX_POOLED_FRAME_BYTES = 16L * 1024 * 1024;
+  // A few processed 1080p results of the selected image
+  private static final long MAX_IMAGE_RESULT_BYTES = 32L * 1024 * 1024;
+  // Consecutive processed frames saved by a long press on the capture button
+  private static final int CAPTURE_BURST_SIZE = 5;
 
   private BeautyEffectEngine mBeautyEngine;
+  private BeautyProcessor mBeautyProcessor;
   private BeautyParamApplier mBeautyParamApplier;
+  // Panel changes reach the engine through here, at most once per processed frame
+  private ParamDispatcher mParamDispatcher;
+  private BeautyResourceLoader mResourceLoader;
+  private BeautyPresetStore mPresetStore;
   private CameraHandler mCameraHandler;
   private FrameLayout mCameraPreviewContainer;
   private GLI420Renderer mVideoRenderer;
   private BeautyPanelController mBeautyPanelController;
   private volatile boolean mResumeRenderOnNextFrame = false;
 
+  /** Photo shown in image mode, wrapped once so parameter changes only re-run processImage. */
+  private static final class SelectedImage {
+    final Bitmap bitmap;
+    final ImageFrame frame;
+
+    SelectedImage(Bitmap bitmap, ImageFrame frame) {
+      this.bitmap = bitmap;
+      this.frame = frame;
+    }
+  }
+
   // Image mode
-  private Bitmap mSelectedBitmap = null;
-  private boolean mIsImageMode = false;
-  
-  // Store the latest camera frame
-  private ImageFrame mLatestCameraFrame;
-  private final Object mFrameLock = new Object();
-  // Flag to indicate if the next frame should be saved
-  private volatile boolean mShouldSaveFrame = false;
+  private volatile SelectedImage mSelectedImage = null;
+  private volatile boolean mIsImageMode = false;
+  // GL thread only: whether the frame being drawn is owned by the processor
+  private boolean mDrawingProcessorOutput = false;
+  // Processed results of the selected image per parameter state; GL thread only
+  private final ImageResultCache<ImageFrame> mImageResults =
+      new ImageResultCache<>(new ImageResultCache.ValueHandler<ImageFrame>() {
+        @Override
+        public long sizeOf(ImageFrame frame) {
+          long pixels = (long) frame.getWidth() * frame.getHeight();
+          return frame.getFormat() == ImageFrame.Format.RGBA ? pixels * 4 : pixels * 3 / 2;
+        }
+
+        @Override
+        public void release(ImageFrame frame) {
+          frame.release();
+        }
+      }, MAX_IMAGE_RESULT_BYTES);
+  // GL thread only: whether the frame being drawn is owned by mImageResults
+  private boolean mDrawingCachedResult = false;
+  // Capture waiting for frames; taken by the GL thread in getCurrentFrame
+  private final AtomicReference<CaptureBatch> mCaptureBatch = new AtomicReference<>();
+  // Full-resolution still requested from the camera whose image has not arrived yet
+  private final AtomicReference<CaptureBatch> mStillBatch = new AtomicReference<>();
+  // GL thread only: publish time of the last camera frame drawn, so a burst never saves one twice
+  private long mLastCapturedPublishNs = 0;
+  // Set while recording; frames reach it through the renderer's FrameSink
+  private volatile VideoRecorder mVideoRecorder;
+  // GL thread only: camera timestamp of the frame being drawn, -1 for a still image
+  private long mDrawnSensorTimestampNs = -1;
+  // Size of the last processed camera frame, which is the size a recording gets
+  private volatile int mOutputWidth = 0;
+  private volatile int mOutputHeight = 0;
 
   // Image picker
   private ActivityResultLauncher<Intent> mImagePickerLauncher;
@@ -81,23 +146,58 @@ public class BeautyActivity extends AppCompatActivity implements GLI420Renderer.
     new BeautyBarHandler(findViewById(R.id.main), createBarListener());
 
     initBeautyEngine();
+    // Needs the dispatcher from initBeautyEngine()
+    String initialPreset = getIntent().getStringExtra("preset");
+    if (initialPreset != null && !initialPreset.isEmpty()) {
+      applyPreset(initialPreset);
+    }
 
     initImagePicker();
 
     checkCameraPermission();
   }
 
+  /** Wraps the picked bitmap into the engine frame reused for every redraw in image mode. */
+  private boolean selectImage(Bitmap bitmap) {
+    Bitmap scaled = scaleBitmapIfNeeded(bitmap);
+    ImageFrame frame = ImageFrame.createWithBitmap(scaled);
+    if (frame == null) {
+      Log.e(TAG, "Failed to create ImageFrame from selected image");
+      return false;
+    }
+    frame.type = ImageFrame.FrameType.IMAGE;
+    if (mBeautyParamApplier != null) {
+      mBeautyParamApplier.setProcessingSize(scaled.getWidth(), scaled.getHeight());
+    }
+    releaseSelectedImage();
+    mSelectedImage = new SelectedImage(scaled, frame);
+    mIsImageMode = true;
+    return true;
+  }
+
+  /** Releases the selected image and its cached results on the GL thread, where they are used. */
+  private void releaseSelectedImage() {
+    SelectedImage image = mSelectedImage;
+    mSelectedImage = null;
+    Runnable release = () -> {
+      Log.d(TAG, "Clearing " + mImageResults);
+      mImageResults.clear();
+      if (image != null) {
+        image.frame.release();
+      }
+    };
+    if (mVideoRenderer != null) {
+      mVideoRenderer.queueEvent(release);
+    } else {
+      release.run();
+    }
+  }
+
   private void prepareSelectedImage() {
-    if (mSelectedBitmap == null || mBeautyEngine == null || mVideoRenderer == null) {
+    if (mSelectedImage == null || mBeautyEngine == null || mVideoRenderer == null) {
       return;
     }
 
-    final Bitmap bitmapToProcess = scaleBitmapIfNeeded(mSelectedBitmap);
-    synchronized (mFrameLock) {
-      mIsImageMode = true;
-      mSelectedBitmap = bitmapToProcess;
-    }
-    
     if (mVideoRenderer != null) {
       mVideoRenderer.setRenderingEnabled(true);
       mVideoRenderer.requestRender();
@@ -136,17 +236,20 @@ public class BeautyActivity extends AppCompatActivity implements GLI420Renderer.
             Uri imageUri = result.getData().getData();
             if (imageUri != null) {
               Bitmap bitmap = loadBitmapFromUri(imageUri);
-              if (bitmap != null) {
-                mSelectedBitmap = bitmap;
-                mIsImageMode = true;
-
-                if (mCameraHandler != null) {
-                  mCameraHandler.stopCamera();
-                }
+              if (bitmap == null) {
+                Toast.makeText(this, getString(R.string.failed_to_load_image), Toast.LENGTH_SHORT).show();
+                return;
+              }
+              boolean wasImageMode = mIsImageMode;
+              stopCameraProcessing();
+              if (selectImage(bitmap)) {
                 prepareSelectedImage();
 
                 Log.d(TAG, "Image selected, size: " + bitmap.getWidth() + "x" + bitmap.getHeight());
               } else {
+                if (!wasImageMode) {
+                  returnToCamera();
+                }
                 Toast.makeText(this, getString(R.string.failed_to_load_image), Toast.LENGTH_SHORT).show();
               }
             }
@@ -154,6 +257,43 @@ public class BeautyActivity extends AppCompatActivity implements GLI420Renderer.
         });
   }
 
+  /**
+   * Stops the camera and the processor before image mode, where the GL thread drives the engine.
+   * stop() waits for the frame in flight, so the two threads never use the engine at once.
+   */
+  private void stopCameraProcessing() {
+    if (mCameraHandler != null) {
+      mCameraHandler.stopCamera();
+    }
+    if (mBeautyProcessor != null) {
+      mBeautyProcessor.stop();
+    }
+  }
+
+  /**
+   * Leaves image mode. The switch happens on the GL thread between two draws, so the processor
+   * only restarts once the GL thread is done with the engine.
+   */
+  private void returnToCamera() {
+    releaseSelectedImage();
+    Runnable resume = () -> {
+      mIsImageMode = false;
+      BeautyProcessor processor = mBeautyProcessor;
+      if (processor != null) {
+        processor.start();
+      }
+    };
+    if (mVideoRenderer != null) {
+      mVideoRenderer.queueEvent(resume);
+      mVideoRenderer.releaseCurrentFrame();
+    } else {
+      resume.run();
+    }
+    if (mCameraHandler != null) {
+      mCameraHandler.startCamera();
+    }
+  }
+
   private Bitmap loadBitmapFromUri(Uri uri) {
     try {
       InputStream inputStream = getContentResolver().openInputStream(uri);
@@ -188,10 +328,51 @@ public class BeautyActivity extends AppCompatActivity implements GLI420Renderer.
 
     mBeautyEngine = new BeautyEffectEngine(this, config);
     mBeautyParamApplier = new BeautyParamApplier(this, mBeautyEngine);
+    mParamDispatcher = new ParamDispatcher(mBeautyParamApplier);
+    // Camera frames keep coming, so only image mode needs a redraw to pick the changes up
+    mParamDispatcher.setListener(() -> {
+      if (mIsImageMode) {
+        prepareSelectedImage();
+      }
+    });
+    // Backgrounds are scaled off the processing thread and swapped in at the next frame
+    final BeautyParamApplier applier = mBeautyParamApplier;
+    final ParamDispatcher dispatcher = mParamDispatcher;
+    mBeautyParamApplier.setBackgroundReadyListener(
+        () -> dispatcher.postTask("background", applier::refreshBackground));
     Log.d(TAG, "BeautyEffectEngine initialized");
 
-    BeautyResourceLoader.registerFilters(mBeautyEngine, this);
-    BeautyResourceLoader.registerStickers(mBeautyEngine, this);
+    // Filters and stickers are read in the background when first selected and registered at the
+    // next flush; nothing is loaded up front
+    final BeautyResourceLoader loader =
+        new BeautyResourceLoader(mBeautyEngine, this, mParamDispatcher);
+    mResourceLoader = loader;
+    mBeautyParamApplier.setResourceLoader(loader);
+    StickerCatalog stickers = new StickerCatalog(BeautyResourceLoader.scanStickers(this),
+        (id, path, done) -> {
+          try {
+            loader.registerSticker(id, path).whenComplete(
+                (timing, error) -> done.onLoaded(timing != null && timing.isRegistered()));
+          } catch (RejectedExecutionException e) {
+            // Loader cancelled on destroy
+            done.onLoaded(false);
+          }
+        });
+    // Registration completes inside a flush, so the selection can be applied right away
+    stickers.setListener(id -> applier.refreshRegisteredResources());
+    mBeautyParamApplier.setStickerCatalog(stickers);
+
+    mBeautyProcessor = new BeautyProcessor(mBeautyEngine, PROCESSOR_QUEUE_CAPACITY, MAX_POOLED_FRAME_BYTES);
+    mBeautyProcessor.setParamDispatcher(mParamDispatcher);
+    mBeautyProcessor.setListener(() -> {
+      if (mVideoRenderer == null) return;
+      if (mResumeRenderOnNextFrame) {
+        mVideoRenderer.setRenderingEnabled(true);
+        mResumeRenderOnNextFrame = false;
+      }
+      mVideoRenderer.requestRender();
+    });
+    mBeautyProcessor.start();
   }
 
   private void initPreview() {
@@ -207,35 +388,25 @@ public class BeautyActivity extends AppCompatActivity implements GLI420Renderer.
     mBeautyPanelController.setBeautyParamCallback(new BeautyPanelController.BeautyParamCallback() {
       @Override
       public void onBeautyParamChanged(String tab, String function, float value) {
-        if (mBeautyParamApplier != null) {
-          mBeautyParamApplier.apply(tab, function, value);
-        }
-        if (mIsImageMode) {
-          prepareSelectedImage();
+        if (mParamDispatcher != null) {
+          mParamDispatcher.post(tab, function, value);
         }
       }
 
       @Override
       public void onBeautyReset() {
-        if (mBeautyParamApplier != null) {
-          mBeautyParamApplier.resetAll();
+        if (mParamDispatcher != null) {
+          mParamDispatcher.postResetAll();
         }
         if (mIsImageMode) {
-          mIsImageMode = false;
-          mSelectedBitmap = null;
-          if (mVideoRenderer != null) {
-            mVideoRenderer.releaseCurrentFrame();
-          }
-          if (mCameraHandler != null) {
-            mCameraHandler.startCamera();
-          }
+          returnToCamera();
         }
       }
 
       @Override
       public void onBeautyTabReset(String tab) {
-        if (mBeautyParamApplier != null) {
-          mBeautyParamApplier.resetTab(tab);
+        if (mParamDispatcher != null) {
+          mParamDispatcher.postResetTab(tab);
         }
       }
 
@@ -248,8 +419,15 @@ public class BeautyActivity extends AppCompatActivity implements GLI420Renderer.
       public void onCaptureRequested() {
         captureAndSaveImage();
       }
+
+      @Override
+      public void onPresetsRequested() {
+        showPresetDialog();
+      }
     });
 
+    mPresetStore = new BeautyPresetStore(this);
+
     String initialTab = getIntent().getStringExtra("initial_tab");
     if (initialTab != null && !initialTab.isEmpty()) {
       rootView.post(() -> {
@@ -274,24 +452,19 @@ public class BeautyActivity extends AppCompatActivity implements GLI420Renderer.
       @Override
       public void onFlipCamera() {
         if (mIsImageMode) {
-          mIsImageMode = false;
-          mSelectedBitmap = null;
-          if (mVideoRenderer != null) mVideoRenderer.releaseCurrentFrame();
-          if (mCameraHandler != null) mCameraHandler.startCamera();
+          returnToCamera();
           Toast.makeText(BeautyActivity.this, "Back to Camera", Toast.LENGTH_SHORT).show();
           return;
         }
         if (mCameraHandler == null) return;
+        // Rendering resumes once the first frame from the new camera has been published
         if (mVideoRenderer != null) {
           mVideoRenderer.setRenderingEnabled(false);
-          synchronized (mFrameLock) {
-            if (mLatestCameraFrame != null) {
-              mLatestCameraFrame.release();
-              mLatestCameraFrame = null;
-            }
-          }
         }
         mResumeRenderOnNextFrame = true;
+        if (mBeautyProcessor != null) {
+          mBeautyProcessor.dropPending();
+        }
         mCameraHandler.switchCamera();
         Toast.makeText(BeautyActivity.this, getString(R.string.camera_switched), Toast.LENGTH_SHORT).show();
       }
@@ -301,6 +474,15 @@ public class BeautyActivity extends AppCompatActivity implements GLI420Renderer.
         Toast.makeText(BeautyActivity.this, getString(R.string.more_options), Toast.LENGTH_SHORT).show();
       }
 
+      @Override
+      public void onToggleRecording() {
+        if (mVideoRecorder != null) {
+          stopRecording();
+        } else {
+          startRecording();
+        }
+      }
+
       @Override
       public void onBeforeAfter() {
         Toast.makeText(BeautyActivity.this, getString(R.string.compare_effect), Toast.LENGTH_SHORT).show();
@@ -321,12 +503,18 @@ public class BeautyActivity extends AppCompatActivity implements GLI420Renderer.
       public void onCapture() {
         captureAndSaveImage();
       }
+
+      @Override
+      public void onCaptureBurst() {
+        captureFrames(CAPTURE_BURST_SIZE);
+      }
     };
   }
 
   public void setupCamera() {
     if (mCameraHandler == null) {
       mCameraHandler = new CameraHandler(this);
+      final CameraHandler camera = mCameraHandler;
 
       mCameraHandler.setFrameCallback(new CameraHandler.FrameCallback() {
         @Override
@@ -337,56 +525,72 @@ public class BeautyActivity extends AppCompatActivity implements GLI420Renderer.
             }
             return;
           }
+          if (image == null) {
+            Log.w(TAG, "onFrameAvailable: image is null");
+            return;
+          }
           final long startNs = System.nanoTime();
-          try {
-            if (image == null) {
-              Log.w(TAG, "onFrameAvailable: image is null");
-              return;
-            }
 
-            Image.Plane[] planes = image.getPlanes();
-            ByteBuffer yBuffer = planes[0].getBuffer();
-            ByteBuffer uBuffer = planes[1].getBuffer();
-            ByteBuffer vBuffer = planes[2].getBuffer();
-
-            int yStride = planes[0].getRowStride();
-            int uStride = planes[1].getRowStride();
-            int vStride = planes[2].getRowStride();
-
-            int uPixelStride = planes[1].getPixelStride();
-            int width = image.getWidth();
-            int height = image.getHeight();
-
-            ImageFrame input = ImageFrame.createWithAndroid420(
-                width, height, yBuffer, yStride, uBuffer, uStride, vBuffer, vStride, uPixelStride);
-            if (input != null) {
-              if (mCameraHandler != null && mCameraHandler.isFrontFacing()) {
-                input.rotate(ImageFrame.Rotation.ROTATION_270);
-                input.mirror("horizontal");
-              } else {
-                input.rotate(ImageFrame.Rotation.ROTATION_90);
-              }
-              if (mResumeRenderOnNextFrame && mVideoRenderer != null) {
-                mVideoRenderer.setRenderingEnabled(true);
-                mResumeRenderOnNextFrame = false;
-              }
-              input.type = ImageFrame.FrameType.VIDEO;
-              
-              synchronized (mFrameLock) {
-                if (mLatestCameraFrame != null) {
-                  mLatestCameraFrame.release();
-                }
-                mLatestCameraFrame = input;
-              }
-              if (mVideoRenderer != null) {
-                mVideoRenderer.requestRender();
-              }
+          // Copy upright into a pooled frame so the image goes back to the reader right away; the
+          // engine frame is created on the processor thread, only for frames that are not dropped
+          boolean frontFacing = mCameraHandler != null && mCameraHandler.isFrontFacing();
+          CameraFrame frame = mBeautyProcessor.obtainFrame(image.getWidth(), image.getHeight());
+          frame.copyFrom(image, OrientationTransform.forCamera(orientation, frontFacing, true));
+          // Cheap when unchanged; after a camera switch it rescales the background once
+          mBeautyParamApplier.setProcessingSize(frame.getOutputWidth(), frame.getOutputHeight());
 
-            } else {
-              Log.w(TAG, "Failed to process frame - output is null");
+          mBeautyProcessor.getIngestLatency().record(System.nanoTime() - startNs);
+          mBeautyProcessor.submit(frame);
+        }
+      });
+
+      mCameraHandler.setStillCallback(new CameraHandler.StillCallback() {
+        @Override
+        public void onStillAvailable(Image image, int orientation) {
+          CaptureBatch batch = mStillBatch.getAndSet(null);
+          BeautyProcessor processor = mBeautyProcessor;
+          if (batch == null) {
+            camera.releaseStill(image);
+            return;
+          }
+          if (processor == null) {
+            camera.releaseStill(image);
+            batch.onFailure();
+            return;
+          }
+          OrientationTransform transform =
+              OrientationTransform.forCamera(orientation, camera.isFrontFacing(), true);
+          // The processor thread wraps the image itself; the camera thread does no copy
+          BeautyProcessor.StillSource source = new BeautyProcessor.StillSource() {
+            @Override
+            public ImageFrame wrap() {
+              return CameraFrame.wrap(image, transform, ImageFrame.FrameType.IMAGE);
+            }
+
+            @Override
+            public void close() {
+              camera.releaseStill(image);
             }
-          } finally {
-            long elapsedUs = (System.nanoTime() - startNs) / 1000L;
+          };
+          boolean queued = processor.submitStill(source, output -> {
+            if (output == null) {
+              batch.onFailure();
+              return;
+            }
+            CaptureFrameSaver.save(output, BeautyActivity.this, batch);
+            output.release();
+          });
+          if (!queued) {
+            camera.releaseStill(image);
+            batch.onFailure();
+          }
+        }
+
+        @Override
+        public void onStillFailed() {
+          CaptureBatch batch = mStillBatch.getAndSet(null);
+          if (batch != null) {
+            batch.onFailure();
           }
         }
       });
@@ -430,6 +634,7 @@ public class BeautyActivity extends AppCompatActivity implements GLI420Renderer.
   @Override
   protected void onPause() {
     super.onPause();
+    stopRecording();
 
     if (mCameraHandler != null) {
       mCameraHandler.stopCamera();
@@ -447,76 +652,305 @@ public class BeautyActivity extends AppCompatActivity implements GLI420Renderer.
 
   @Override
   public ImageFrame getCurrentFrame() {
-    synchronized (mFrameLock) {
-      ImageFrame resultFrame = null;
-      ImageFrame outputFrame = null;
-      
-      if (mIsImageMode) {
-        if (mSelectedBitmap != null) {
-          try {
-            ImageFrame input = ImageFrame.createWithBitmap(mSelectedBitmap);
-            if (input != null) {
-              input.type = ImageFrame.FrameType.IMAGE;
-              outputFrame = mBeautyEngine.processImage(input);
-              if (outputFrame != null) {
-                ImageFrame i420Output = outputFrame.convert(ImageFrame.Format.I420);
-                if (i420Output != null) {
-                  resultFrame = i420Output;
-                }
-              }
-              input.release();
-            }
-          } catch (Exception e) {
-            Log.e(TAG, "Error processing image in getCurrentFrame", e);
-          }
-        }
-      } else {
-        if (mLatestCameraFrame != null) {
-          try {
-            outputFrame = mBeautyEngine.processImage(mLatestCameraFrame);
-
-            if (outputFrame != null) {
+    ImageFrame resultFrame = null;
+    ImageFrame outputFrame = null;
+    // Intermediate frame to release once this method is done with it
+    ImageFrame convertedFrom = null;
+    // Whether outputFrame has not been drawn before, i.e. is worth another burst capture
+    boolean freshOutput = false;
+    mDrawnSensorTimestampNs = -1;
+
+    if (mIsImageMode) {
+      // The processor is stopped in image mode, so this is the only thread driving the engine.
+      // Apply the slider changes since the last draw in one go
+      mParamDispatcher.flush();
+      SelectedImage selected = mSelectedImage;
+      BeautyParamSnapshot params = mBeautyParamApplier.snapshot();
+      ImageFrame cached = selected != null ? mImageResults.get(selected, params) : null;
+      if (cached != null) {
+        // Nothing changed since this result was processed
+        outputFrame = cached;
+        resultFrame = cached;
+        mDrawingCachedResult = true;
+      } else if (selected != null) {
+        try {
+          // The source frame is built once per selected image and reused here
+          outputFrame = mBeautyEngine.processImage(selected.frame);
+          if (outputFrame != null) {
+            if (GLI420Renderer.canDraw(outputFrame.getFormat())) {
               resultFrame = outputFrame;
+            } else {
+              resultFrame = outputFrame.convert(ImageFrame.Format.I420);
+              convertedFrom = outputFrame;
             }
-          } catch (Exception e) {
-            Log.e(TAG, "Error processing camera frame in getCurrentFrame", e);
           }
+          // Skip caching if a parameter changed while processing; the key would not match
+          if (resultFrame != null && params.equals(mBeautyParamApplier.snapshot())) {
+            mDrawingCachedResult = mImageResults.put(selected, params, resultFrame);
+          }
+        } catch (Exception e) {
+          Log.e(TAG, "Error processing image in getCurrentFrame", e);
         }
       }
-      
-      if (mShouldSaveFrame && outputFrame != null) {
-        mShouldSaveFrame = false;
-        CaptureFrameSaver.save(outputFrame, this, new CaptureFrameSaver.SaveResultListener() {
-          @Override
-          public void onSuccess() {
-            runOnUiThread(() -> CaptureFrameSaver.showSaveResultToast(BeautyActivity.this, true));
-          }
+    } else if (mBeautyProcessor != null) {
+      // Camera frames are already processed; just pick up the newest one
+      BeautyProcessor.Output output = mBeautyProcessor.acquireOutput();
+      if (output != null) {
+        outputFrame = output.frame;
+        resultFrame = outputFrame;
+        mDrawingProcessorOutput = true;
+        mDrawnSensorTimestampNs = output.sensorTimestampNs;
+        mOutputWidth = outputFrame.getWidth();
+        mOutputHeight = outputFrame.getHeight();
+        freshOutput = output.publishTimeNs != mLastCapturedPublishNs;
+        if (freshOutput) {
+          mLastCapturedPublishNs = output.publishTimeNs;
+        }
+      } else {
+        mBeautyProcessor.releaseOutput();
+      }
+    }
 
-          @Override
-          public void onFailure() {
-            runOnUiThread(() -> CaptureFrameSaver.showSaveResultToast(BeautyActivity.this, false));
-          }
-        });
+    CaptureBatch batch = mCaptureBatch.get();
+    if (batch != null && outputFrame != null && (mIsImageMode || freshOutput)) {
+      if (--batch.framesToTake == 0) {
+        mCaptureBatch.compareAndSet(batch, null);
       }
+      // Only the pixel copy runs here; encoding happens off the GL thread
+      CaptureFrameSaver.save(outputFrame, this, batch);
+    }
 
-      return resultFrame;
+    if (convertedFrom != null) {
+      convertedFrom.release();
     }
+    return resultFrame;
   }
   
   @Override
   public void releaseFrame(ImageFrame frame) {
+    if (mDrawingCachedResult) {
+      // Owned by the image result cache
+      mDrawingCachedResult = false;
+      return;
+    }
+    if (mDrawingProcessorOutput) {
+      // Owned by the processor's output buffer; it is recycled when a newer frame replaces it
+      mDrawingProcessorOutput = false;
+      mBeautyProcessor.releaseOutput();
+      return;
+    }
     if (frame != null) {
       frame.release();
     }
   }
 
+  /**
+   * Switches to a saved look in one step: the whole snapshot is applied at the next frame
+   * boundary, so no frame shows a mix of the old and new preset.
+   */
+  public boolean applyPreset(String name) {
+    if (mParamDispatcher == null) {
+      Log.w(TAG, "Cannot apply preset before the engine is initialized: " + name);
+      return false;
+    }
+    BeautyPreset preset = mPresetStore != null ? mPresetStore.get(name) : null;
+    if (preset == null) {
+      Log.w(TAG, "Preset not found: " + name);
+      return false;
+    }
+    mParamDispatcher.postSnapshot(preset.snapshot);
+    if (mBeautyPanelController != null) {
+      mBeautyPanelController.syncToSnapshot(preset.snapshot);
+    }
+    return true;
+  }
+
+  /** Saves the parameters on screen, i.e. those last applied to the engine, as {@code name}. */
+  public boolean saveCurrentPreset(String name) {
+    if (mPresetStore == null || mBeautyParamApplier == null) {
+      return false;
+    }
+    return mPresetStore.save(BeautyPreset.capture(name, mBeautyParamApplier.snapshot()));
+  }
+
+  /** Lists the presets to apply, plus an entry that saves the current look under a new name. */
+  private void showPresetDialog() {
+    if (mPresetStore == null) {
+      return;
+    }
+    List<String> names = mPresetStore.getNames();
+    String[] items = new String[names.size() + 1];
+    names.toArray(items);
+    items[names.size()] = getString(R.string.save_current_preset);
+    new AlertDialog.Builder(this)
+        .setTitle(R.string.presets)
+        .setItems(items, (dialog, which) -> {
+          if (which < names.size()) {
+            applyPreset(names.get(which));
+          } else {
+            showSavePresetDialog();
+          }
+        })
+        .show();
+  }
+
+  private void showSavePresetDialog() {
+    EditText input = new EditText(this);
+    input.setHint(R.string.preset_name);
+    input.setSingleLine(true);
+    new AlertDialog.Builder(this)
+        .setTitle(R.string.save_current_preset)
+        .setView(input)
+        .setPositiveButton(android.R.string.ok, (dialog, which) -> {
+          String name = input.getText().toString().trim();
+          if (name.isEmpty()) {
+            return;
+          }
+          boolean saved = saveCurrentPreset(name);
+          Toast.makeText(this, saved ? getString(R.string.preset_saved, name)
+                  : getString(R.string.failed_to_save_preset), Toast.LENGTH_SHORT).show();
+        })
+        .setNegativeButton(android.R.string.cancel, null)
+        .show();
+  }
+
+  /**
+   * Records the processed camera stream to an MP4 in the app's Movies directory. The renderer
+   * draws each new frame a second time into the encoder, on the GL thread.
+   */
+  private void startRecording() {
+    if (mIsImageMode || mVideoRenderer == null || mOutputWidth <= 0 || mOutputHeight <= 0) {
+      Log.w(TAG, "Nothing to record yet");
+      return;
+    }
+    File dir = getExternalFilesDir(Environment.DIRECTORY_MOVIES);
+    String timeStamp =
+        new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).format(new Date());
+    File file = new File(dir != null ? dir : getFilesDir(), "FBExample_" + timeStamp + ".mp4");
+    VideoRecorder recorder;
+    try {
+      recorder = VideoRecorder.start(file, mOutputWidth, mOutputHeight, true,
+          (recorded, success) -> runOnUiThread(() -> Toast.makeText(BeautyActivity.this,
+              success ? getString(R.string.video_saved, recorded.getAbsolutePath())
+                      : getString(R.string.failed_to_record_video),
+              Toast.LENGTH_LONG).show()));
+    } catch (IOException e) {
+      Log.e(TAG, "Failed to start recording", e);
+      Toast.makeText(this, getString(R.string.failed_to_record_video), Toast.LENGTH_SHORT).show();
+      return;
+    }
+    mVideoRecorder = recorder;
+    mVideoRenderer.setFrameSink((frame, redraw) -> {
+      if ((frame.getWidth() & ~1) != recorder.getWidth()
+          || (frame.getHeight() & ~1) != recorder.getHeight()) {
+        // E.g. a camera switch; the encoder keeps the size it started with, so finish the file
+        runOnUiThread(() -> {
+          if (mVideoRecorder == recorder) {
+            stopRecording();
+          }
+        });
+        return;
+      }
+      // Still images and repeated frames carry no new camera timestamp and are not recorded
+      if (mDrawnSensorTimestampNs >= 0) {
+        recorder.encodeFrame(redraw, mDrawnSensorTimestampNs);
+      }
+    });
+    Toast.makeText(this, getString(R.string.recording_started), Toast.LENGTH_SHORT).show();
+  }
+
+  /** Stops recording; the file is finished in the background and a toast reports it. */
+  private void stopRecording() {
+    VideoRecorder recorder = mVideoRecorder;
+    if (recorder == null) {
+      return;
+    }
+    mVideoRecorder = null;
+    // If the GL thread goes away before the queued stop runs, the recorder gives up on its own
+    recorder.stop();
+    if (mVideoRenderer != null) {
+      mVideoRenderer.setFrameSink(null);
+      // Runs on the GL thread after any frame being drawn into the encoder
+      mVideoRenderer.queueEvent(recorder::stopOnGlThread);
+    }
+    Log.d(TAG, "Recording stats: " + recorder);
+  }
+
   private void captureAndSaveImage() {
-    mShouldSaveFrame = true;
+    // The camera takes a full-resolution still; the preview frame is the fallback
+    if (!mIsImageMode && captureStill()) {
+      return;
+    }
+    captureFrames(1);
+  }
+
+  /**
+   * Requests a full-resolution still from the camera. It gets one beauty pass of its own on the
+   * processor thread and is saved like any capture.
+   * @return false if the camera has no still stream
+   */
+  private boolean captureStill() {
+    CameraHandler camera = mCameraHandler;
+    if (camera == null || mBeautyProcessor == null || !camera.hasStillStream()) {
+      return false;
+    }
+    CaptureBatch batch = new CaptureBatch(1);
+    if (!mStillBatch.compareAndSet(null, batch)) {
+      // One still at a time; this tap is absorbed by the one in flight
+      return true;
+    }
+    if (!camera.captureStill()) {
+      mStillBatch.compareAndSet(batch, null);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Saves the next {@code count} processed frames; one toast reports the whole batch. A still
+   * image is saved once. Ignored while an earlier capture is still waiting for frames.
+   */
+  private void captureFrames(int count) {
+    CaptureBatch batch = new CaptureBatch(mIsImageMode ? 1 : count);
+    if (!mCaptureBatch.compareAndSet(null, batch)) {
+      return;
+    }
     if (mVideoRenderer != null) {
       mVideoRenderer.requestRender();
     }
   }
 
+  /** Frames of one capture request; reports once every frame is saved or has failed. */
+  private final class CaptureBatch implements CaptureFrameSaver.SaveResultListener {
+    // GL thread only
+    int framesToTake;
+    private final AtomicInteger mUnreported;
+    private final AtomicInteger mFailures = new AtomicInteger();
+
+    CaptureBatch(int count) {
+      framesToTake = count;
+      mUnreported = new AtomicInteger(count);
+    }
+
+    @Override
+    public void onSuccess() {
+      onFrameDone();
+    }
+
+    @Override
+    public void onFailure() {
+      mFailures.incrementAndGet();
+      onFrameDone();
+    }
+
+    private void onFrameDone() {
+      if (mUnreported.decrementAndGet() == 0) {
+        boolean success = mFailures.get() == 0;
+        runOnUiThread(() -> CaptureFrameSaver.showSaveResultToast(BeautyActivity.this, success));
+      }
+    }
+  }
+
   @Override
   protected void onDestroy() {
     if (mCameraHandler != null) {
@@ -525,20 +959,45 @@ public class BeautyActivity extends AppCompatActivity implements GLI420Renderer.
     }
 
     if (mVideoRenderer != null) {
+      // Blocks until the GL thread has left onDrawFrame, so nothing still reads the buffer
+      mVideoRenderer.onPause();
+      Log.d(TAG, "Texture reallocations: " + mVideoRenderer.getTextureReallocationCount());
       mVideoRenderer = null;
+      // The GL thread is paused, so this releases the image frame right away
+      releaseSelectedImage();
     }
 
-    synchronized (mFrameLock) {
-      if (mLatestCameraFrame != null) {
-        mLatestCameraFrame.release();
-        mLatestCameraFrame = null;
+    if (mBeautyProcessor != null) {
+      mBeautyProcessor.stop();
+      Log.d(TAG, "Pipeline stats: " + mBeautyProcessor + ", " + mParamDispatcher);
+      if (mBeautyParamApplier != null) {
+        Log.d(TAG, "Filter stats: " + mBeautyParamApplier.getFilterRegistry());
       }
+      mBeautyProcessor.clearOutputs();
+      mBeautyProcessor = null;
     }
 
+    Log.d(TAG, "Capture stats: " + CaptureFrameSaver.getStats());
+
+    if (mResourceLoader != null) {
+      mResourceLoader.cancel();
+      mResourceLoader = null;
+    }
     if (mBeautyEngine != null) {
       mBeautyEngine.release();
     }
+    if (mBeautyParamApplier != null) {
+      mBeautyParamApplier.release();
+    }
 
     super.onDestroy();
   }
+
+  @Override
+  public void onTrimMemory(int level) {
+    super.onTrimMemory(level);
+    if (mBeautyParamApplier != null) {
+      mBeautyParamApplier.trimMemory();
+    }
+  }
 }
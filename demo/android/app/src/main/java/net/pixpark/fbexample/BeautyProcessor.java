@@ -0,0 +1,410 @@
+package net.pixpark.fbexample;
+
+import android.util.Log;
+import net.pixpark.facebetter.BeautyEffectEngine;
+import net.pixpark.facebetter.ImageFrame;
+import net.pixpark.fbexample.beautypanel.ParamDispatcher;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs the beauty pass on its own thread, between the camera callback and the GL renderer.
+ *
+ * <p>Camera frames are copied upright into pooled {@link CameraFrame}s from {@link #obtainFrame}
+ * and queued with {@link #submit}; when the queue is full the oldest frame is dropped so the
+ * camera never waits. Engine frames are only created here, for frames that actually get
+ * processed. Processed frames go into a {@link TripleBuffer} that the render thread reads with
+ * {@link #acquireOutput()} / {@link #releaseOutput()}, so camera ingest, processing and display
+ * of consecutive frames overlap.
+ */
+public final class BeautyProcessor {
+  private static final String TAG = "BeautyProcessor";
+
+  /** Called on the processor thread after each frame is published. */
+  public interface Listener {
+    void onFrameProcessed();
+  }
+
+  /** A camera image handed over for one still pass; both methods run on the processor thread. */
+  public interface StillSource {
+    /** Wraps the image into an upright engine frame; null on failure. */
+    ImageFrame wrap();
+
+    /** Gives the image back. Called once, after {@link #wrap()} or instead of it. */
+    void close();
+  }
+
+  /** Called on the processor thread with a processed still. */
+  public interface StillCallback {
+    /** @param output owned by the callee, which must release it; null if processing failed */
+    void onStillProcessed(ImageFrame output);
+  }
+
+  /** A processed frame plus the timestamps used for latency accounting. */
+  public static final class Output {
+    public final ImageFrame frame;
+    /** System.nanoTime() when the source frame was submitted. */
+    public final long submitTimeNs;
+    /** System.nanoTime() when the processed frame was published. */
+    public final long publishTimeNs;
+    /** Image.getTimestamp() of the camera image the frame was made from. */
+    public final long sensorTimestampNs;
+
+    Output(ImageFrame frame, long submitTimeNs, long publishTimeNs, long sensorTimestampNs) {
+      this.frame = frame;
+      this.submitTimeNs = submitTimeNs;
+      this.publishTimeNs = publishTimeNs;
+      this.sensorTimestampNs = sensorTimestampNs;
+    }
+  }
+
+  private static final class Still {
+    final StillSource source;
+    final StillCallback callback;
+
+    Still(StillSource source, StillCallback callback) {
+      this.source = source;
+      this.callback = callback;
+    }
+  }
+
+  private static final class Input {
+    // Null for WAKE
+    final CameraFrame frame;
+    final long submitTimeNs;
+
+    Input(CameraFrame frame, long submitTimeNs) {
+      this.frame = frame;
+      this.submitTimeNs = submitTimeNs;
+    }
+  }
+
+  // Queued by submitStill() so a still is processed without waiting for the next camera frame
+  private static final Input WAKE = new Input(null, 0);
+
+  private final BeautyEffectEngine mEngine;
+  private final BlockingQueue<Input> mInputQueue;
+  private final TripleBuffer<Output> mOutputs = new TripleBuffer<>(output -> output.frame.release());
+  private final FramePool<CameraFrame> mFramePool;
+  private Listener mListener;
+  private volatile ParamDispatcher mParamDispatcher;
+  private Thread mThread;
+  // Held while checking mRunning and queueing, so nothing is queued after stop() drained the queue
+  private final Object mSubmitLock = new Object();
+  private volatile boolean mRunning = false;
+
+  // At most one still waits for its pass; it runs as soon as the thread wakes
+  private final AtomicReference<Still> mPendingStill = new AtomicReference<>();
+  private final AtomicLong mDroppedInputCount = new AtomicLong();
+  private final LatencyStats mIngestLatency = new LatencyStats("ingest");
+  private final LatencyStats mQueueLatency = new LatencyStats("queue");
+  private final LatencyStats mWrapLatency = new LatencyStats("wrap");
+  private final LatencyStats mProcessLatency = new LatencyStats("process");
+  private final LatencyStats mStillLatency = new LatencyStats("still");
+  private final LatencyStats mDisplayLatency = new LatencyStats("display");
+  private final LatencyStats mEndToEndLatency = new LatencyStats("end_to_end");
+
+  /**
+   * @param maxPooledBytes upper bound on memory kept by released camera frames
+   */
+  public BeautyProcessor(BeautyEffectEngine engine, int queueCapacity, long maxPooledBytes) {
+    mEngine = engine;
+    mInputQueue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+    mFramePool = new FramePool<>(new FramePool.Allocator<CameraFrame>() {
+      @Override
+      public CameraFrame allocate(int width, int height, int format) {
+        return new CameraFrame(width, height);
+      }
+
+      @Override
+      public void free(CameraFrame frame) {
+        frame.release();
+      }
+
+      @Override
+      public long sizeOf(CameraFrame frame) {
+        return frame.getByteSize();
+      }
+    }, maxPooledBytes);
+  }
+
+  public void setListener(Listener listener) {
+    mListener = listener;
+  }
+
+  /** Pending parameter changes are flushed on the processor thread right before each frame. */
+  public void setParamDispatcher(ParamDispatcher dispatcher) {
+    mParamDispatcher = dispatcher;
+  }
+
+  public synchronized void start() {
+    if (mThread != null) return;
+    mRunning = true;
+    mThread = new Thread(this::processLoop, "BeautyProcessor");
+    mThread.start();
+  }
+
+  /** Stops the thread and waits for the frame in flight to finish. Queued frames are released. */
+  public synchronized void stop() {
+    if (mThread == null) return;
+    synchronized (mSubmitLock) {
+      mRunning = false;
+    }
+    mThread.interrupt();
+    try {
+      mThread.join();
+    } catch (InterruptedException e) {
+      Log.e(TAG, "Interrupted when stopping processor thread", e);
+      Thread.currentThread().interrupt();
+    }
+    mThread = null;
+    Still still = mPendingStill.getAndSet(null);
+    if (still != null) {
+      still.source.close();
+      still.callback.onStillProcessed(null);
+    }
+    dropPending();
+    mFramePool.clear();
+  }
+
+  /** Camera thread: returns a pooled frame to copy the next camera image into. */
+  public CameraFrame obtainFrame(int width, int height) {
+    return mFramePool.acquire(width, height, CameraFrame.FORMAT);
+  }
+
+  /**
+   * Queues a frame from {@link #obtainFrame}; ownership passes to the processor. Never blocks: if
+   * the queue is full the oldest queued frame is dropped.
+   * @return false if an older frame had to be dropped to make room
+   */
+  public boolean submit(CameraFrame frame) {
+    if (frame == null) return true;
+    Input input = new Input(frame, System.nanoTime());
+    boolean dropped = false;
+    synchronized (mSubmitLock) {
+      if (!mRunning) {
+        recycle(frame);
+        return false;
+      }
+      while (!mInputQueue.offer(input)) {
+        Input oldest = mInputQueue.poll();
+        if (oldest != null && oldest.frame != null) {
+          recycle(oldest.frame);
+          mDroppedInputCount.incrementAndGet();
+          dropped = true;
+        }
+      }
+    }
+    return !dropped;
+  }
+
+  /**
+   * Queues a full-resolution camera image for one beauty pass with still-photo quality. The
+   * processor thread is woken for it right away and wraps the image itself, so the camera thread
+   * does no copy. Preview stalls for one still pass.
+   * @return false if another still is still waiting; the source is not touched then and the
+   *     callback is not called
+   */
+  public boolean submitStill(StillSource source, StillCallback callback) {
+    synchronized (mSubmitLock) {
+      if (!mRunning || !mPendingStill.compareAndSet(null, new Still(source, callback))) {
+        return false;
+      }
+      // A full queue holds camera frames, which wake the thread anyway
+      mInputQueue.offer(WAKE);
+    }
+    return true;
+  }
+
+  /** Releases frames that are queued but not yet processed, e.g. when switching cameras. */
+  public void dropPending() {
+    Input input;
+    while ((input = mInputQueue.poll()) != null) {
+      if (input.frame != null) {
+        recycle(input.frame);
+        mDroppedInputCount.incrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * Render thread: returns the newest processed frame (or the last one again if nothing new has
+   * arrived), or null. Must be paired with {@link #releaseOutput()}.
+   */
+  public Output acquireOutput() {
+    long consumedBefore = mOutputs.getConsumedCount();
+    Output output = mOutputs.acquire();
+    boolean fresh = mOutputs.getConsumedCount() != consumedBefore;
+    if (output != null && fresh) {
+      long now = System.nanoTime();
+      mDisplayLatency.record(now - output.publishTimeNs);
+      mEndToEndLatency.record(now - output.submitTimeNs);
+    }
+    return output;
+  }
+
+  /** Render thread: ends the read started by {@link #acquireOutput()}. */
+  public void releaseOutput() {
+    mOutputs.release();
+  }
+
+  /** Releases held output frames. Only call once the processor and render thread have stopped. */
+  public void clearOutputs() {
+    mOutputs.clear();
+  }
+
+  private void processLoop() {
+    while (mRunning) {
+      Input input;
+      try {
+        input = mInputQueue.take();
+      } catch (InterruptedException e) {
+        break;
+      }
+      Still still = mPendingStill.getAndSet(null);
+      if (still != null) {
+        processStill(still);
+      }
+      if (input == WAKE) {
+        continue;
+      }
+      long wrapStartNs = System.nanoTime();
+      mQueueLatency.record(wrapStartNs - input.submitTimeNs);
+      ImageFrame source = input.frame.toImageFrame();
+      long sensorTimestampNs = input.frame.getTimestampNs();
+      // The engine frame owns a copy of the planes, so the buffers can go back to the pool now.
+      // The engine has no way to refill a frame, so this one is created and released per frame
+      recycle(input.frame);
+      if (source == null) {
+        Log.w(TAG, "Failed to wrap camera frame");
+        continue;
+      }
+      mWrapLatency.record(System.nanoTime() - wrapStartNs);
+
+      ParamDispatcher dispatcher = mParamDispatcher;
+      if (dispatcher != null) {
+        dispatcher.flush();
+      }
+      long startNs = System.nanoTime();
+
+      ImageFrame output = null;
+      try {
+        output = mEngine.processImage(source);
+      } catch (Exception e) {
+        Log.e(TAG, "Error processing camera frame", e);
+      } finally {
+        source.release();
+      }
+      long endNs = System.nanoTime();
+      mProcessLatency.record(endNs - startNs);
+
+      if (output == null) {
+        continue;
+      }
+      mOutputs.publish(new Output(output, input.submitTimeNs, endNs, sensorTimestampNs));
+      Listener listener = mListener;
+      if (listener != null) {
+        listener.onFrameProcessed();
+      }
+    }
+  }
+
+  private void processStill(Still still) {
+    long startNs = System.nanoTime();
+    ImageFrame output = null;
+    ImageFrame source;
+    try {
+      source = still.source.wrap();
+    } catch (Exception e) {
+      Log.e(TAG, "Error wrapping still", e);
+      source = null;
+    } finally {
+      // The engine frame owns a copy of the planes
+      still.source.close();
+    }
+    if (source == null) {
+      Log.w(TAG, "Failed to wrap still frame");
+    } else {
+      ParamDispatcher dispatcher = mParamDispatcher;
+      if (dispatcher != null) {
+        dispatcher.flush();
+      }
+      try {
+        output = mEngine.processImage(source);
+      } catch (Exception e) {
+        Log.e(TAG, "Error processing still", e);
+      } finally {
+        source.release();
+      }
+    }
+    mStillLatency.record(System.nanoTime() - startNs);
+    still.callback.onStillProcessed(output);
+  }
+
+  private void recycle(CameraFrame frame) {
+    mFramePool.release(frame.width, frame.height, CameraFrame.FORMAT, frame);
+  }
+
+  /** Time spent on the camera thread copying a frame before submit; recorded by the caller. */
+  public LatencyStats getIngestLatency() {
+    return mIngestLatency;
+  }
+
+  /** Time a frame waited in the input queue. */
+  public LatencyStats getQueueLatency() {
+    return mQueueLatency;
+  }
+
+  /** Time spent turning a queued camera frame into an oriented engine frame. */
+  public LatencyStats getWrapLatency() {
+    return mWrapLatency;
+  }
+
+  /** Time spent in processImage. */
+  public LatencyStats getProcessLatency() {
+    return mProcessLatency;
+  }
+
+  /** Time spent on a full-resolution still, from wrapping to the end of processImage. */
+  public LatencyStats getStillLatency() {
+    return mStillLatency;
+  }
+
+  /** Time from publish until the render thread picked the frame up. */
+  public LatencyStats getDisplayLatency() {
+    return mDisplayLatency;
+  }
+
+  /** Time from submit until the render thread picked the frame up. */
+  public LatencyStats getEndToEndLatency() {
+    return mEndToEndLatency;
+  }
+
+  /** Camera frames dropped before processing because the queue was full. */
+  public long getDroppedInputCount() {
+    return mDroppedInputCount.get();
+  }
+
+  /** Processed frames replaced before the render thread picked them up. */
+  public long getDroppedOutputCount() {
+    return mOutputs.getDroppedCount();
+  }
+
+  public long getProcessedCount() {
+    return mOutputs.getPublishedCount();
+  }
+
+  /** Pool of camera frame buffers; exposes hit, miss and eviction counts. */
+  public FramePool<CameraFrame> getFramePool() {
+    return mFramePool;
+  }
+
+  @Override
+  public String toString() {
+    return TAG + "{processed=" + getProcessedCount() + ", droppedIn=" + getDroppedInputCount()
+        + ", droppedOut=" + getDroppedOutputCount() + ", " + mIngestLatency + ", " + mQueueLatency
+        + ", " + mWrapLatency + ", " + mProcessLatency + ", " + mStillLatency + ", " + mDisplayLatency + ", " + mEndToEndLatency + ", " + mFramePool + "}";
+  }
+}
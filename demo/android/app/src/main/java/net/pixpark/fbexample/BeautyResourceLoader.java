@@ -1,62 +1,272 @@
 package net.pixpark.fbexample;
 
 import android.content.Context;
+import android.content.res.AssetFileDescriptor;
 import android.util.Log;
 import net.pixpark.facebetter.BeautyEffectEngine;
+import net.pixpark.fbexample.beautypanel.ParamDispatcher;
+import net.pixpark.fbexample.beautypanel.StickerCatalog;
+import org.json.JSONException;
+import org.json.JSONObject;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
-/** Registers filters and stickers from assets to engine. */
+/**
+ * Registers stickers from assets to engine, off the UI and render threads. Assets are read on a
+ * small pool in parallel; registration is posted to the {@link ParamDispatcher}, so it runs on the
+ * processing thread between two frames and never while the engine processes one. Nothing is
+ * registered up front: stickers load on demand through StickerCatalog, filters through
+ * FilterRegistry.
+ */
 public final class BeautyResourceLoader {
   private static final String TAG = "BeautyResourceLoader";
+  // Asset reads are mostly I/O; a few in parallel is enough to hide the latency
+  private static final int READ_THREADS = 3;
 
-  private static final String[] PORTRAIT_FILTERS = {
-      "confession", "cookie", "dawn", "extraordinary", "fair", "first_love",
-      "initial_heart", "japanese", "lively", "milk_tea", "mousse", "natural",
-      "plain", "pure", "rose", "snow", "tender", "tender_2", "vivid"
-  };
+  private static final String FILTER_MAPPING = "filters/filter_mapping.json";
+  private static final String STICKER_ROOT = "stickers";
 
-  public static void registerFilters(BeautyEffectEngine engine, Context context) {
-    if (engine == null || context == null) return;
-    for (String filterId : PORTRAIT_FILTERS) {
+  // Assets do not change while the app runs, so the scan and the mapping are read once
+  private static volatile Map<String, String> sStickerPaths;
+  private static volatile Map<String, String> sFilterPaths;
+
+  /** How long one resource took to read and to register. */
+  public static final class ResourceTiming {
+    public final String kind;
+    public final String id;
+    public final int bytes;
+    public final long readNs;
+    public final long registerNs;
+    // Engine result, 0 on success; -1 if the asset could not be read
+    public final int result;
+
+    ResourceTiming(String kind, String id, int bytes, long readNs, long registerNs, int result) {
+      this.kind = kind;
+      this.id = id;
+      this.bytes = bytes;
+      this.readNs = readNs;
+      this.registerNs = registerNs;
+      this.result = result;
+    }
+
+    public boolean isRegistered() {
+      return result == 0;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.US, "%s %s: %d bytes, read %.2fms, register %.2fms, result %d",
+          kind, id, bytes, readNs / 1e6, registerNs / 1e6, result);
+    }
+  }
+
+  /** Reads a resource package; runs on the read pool. */
+  interface Reader {
+    byte[] read() throws IOException;
+  }
+
+  /** One engine registration call, e.g. {@code BeautyEffectEngine::registerSticker}. */
+  interface Registrar {
+    int register(String id, byte[] data);
+  }
+
+  private final BeautyEffectEngine mEngine;
+  private final Context mContext;
+  private final ParamDispatcher mDispatcher;
+  private final ExecutorService mReadPool;
+  private volatile boolean mCancelled = false;
+
+  /** @param dispatcher flushed by the thread that drives the engine */
+  public BeautyResourceLoader(BeautyEffectEngine engine, Context context,
+      ParamDispatcher dispatcher) {
+    this(engine, context.getApplicationContext(), dispatcher, READ_THREADS);
+  }
+
+  /** @param appContext only used to read assets; may be null if only {@link #register} is used */
+  BeautyResourceLoader(BeautyEffectEngine engine, Context appContext, ParamDispatcher dispatcher,
+      int readThreads) {
+    mEngine = engine;
+    mContext = appContext;
+    mDispatcher = dispatcher;
+    AtomicInteger threadCount = new AtomicInteger();
+    mReadPool = Executors.newFixedThreadPool(readThreads,
+        r -> new Thread(r, "ResourceReader-" + threadCount.incrementAndGet()));
+  }
+
+  /**
+   * Starts reading a sticker package and returns right away; it is registered at the next flush
+   * of the dispatcher. The future completes with its timing on the processing thread.
+   * @throws RejectedExecutionException if the loader was cancelled
+   */
+  public CompletableFuture<ResourceTiming> registerSticker(String id, String path) {
+    return register("sticker", id, () -> readAsset(mContext, path), mEngine::registerSticker);
+  }
+
+  /**
+   * Starts reading the filter package named in filter_mapping.json; registered like a sticker.
+   * @throws RejectedExecutionException if the loader was cancelled
+   */
+  public CompletableFuture<ResourceTiming> registerFilter(String id) {
+    return register("filter", id, () -> {
+      String path = readFilterMapping(mContext).get(id);
+      if (path == null) {
+        throw new FileNotFoundException("Filter not in " + FILTER_MAPPING + ": " + id);
+      }
+      return readAsset(mContext, path);
+    }, mEngine::registerFilter);
+  }
+
+  /**
+   * Reads with {@code reader} on the pool, then registers with {@code registrar} at the next
+   * flush. The future always completes: exceptionally if either stage throws at runtime.
+   */
+  CompletableFuture<ResourceTiming> register(String kind, String id, Reader reader,
+      Registrar registrar) {
+    CompletableFuture<ResourceTiming> done = new CompletableFuture<>();
+    mReadPool.execute(() -> {
+      long startNs = System.nanoTime();
+      byte[] data;
       try {
-        String path = "filters/portrait/" + filterId + "/" + filterId + ".fbd";
-        InputStream is = context.getAssets().open(path);
-        int size = is.available();
-        byte[] buffer = new byte[size];
-        is.read(buffer);
-        is.close();
-
-        int result = engine.registerFilter(filterId, buffer);
-        if (result == 0) {
-          Log.d(TAG, "Filter registered: " + filterId);
+        data = reader.read();
+      } catch (IOException e) {
+        Log.e(TAG, "Error reading " + kind + ": " + id, e);
+        done.complete(new ResourceTiming(kind, id, 0, System.nanoTime() - startNs, 0, -1));
+        return;
+      } catch (RuntimeException e) {
+        Log.e(TAG, "Error reading " + kind + ": " + id, e);
+        done.completeExceptionally(e);
+        return;
+      }
+      final long readNs = System.nanoTime() - startNs;
+      mDispatcher.postTask(kind + ":" + id, () -> {
+        if (mCancelled) {
+          done.cancel(false);
+          return;
+        }
+        long registerStartNs = System.nanoTime();
+        int result;
+        try {
+          result = registrar.register(id, data);
+        } catch (RuntimeException e) {
+          // Runs inside a flush; the processing thread carries on with the frame
+          Log.e(TAG, "Error registering " + kind + ": " + id, e);
+          done.completeExceptionally(e);
+          return;
+        }
+        ResourceTiming timing = new ResourceTiming(kind, id, data.length, readNs,
+            System.nanoTime() - registerStartNs, result);
+        if (timing.isRegistered()) {
+          Log.d(TAG, "Registered " + timing);
         } else {
-          Log.e(TAG, "Failed to register filter: " + filterId + ", result: " + result);
+          Log.e(TAG, "Failed to register " + timing);
         }
-      } catch (Exception e) {
-        Log.e(TAG, "Error registering filter: " + filterId, e);
+        done.complete(timing);
+      });
+    });
+    return done;
+  }
+
+  /** Sticker id to asset path for every package under assets/stickers, in panel order. */
+  public static Map<String, String> scanStickers(Context context) {
+    Map<String, String> paths = sStickerPaths;
+    if (paths == null) {
+      try {
+        paths = StickerCatalog.scan(context.getAssets()::list, STICKER_ROOT);
+      } catch (IOException e) {
+        Log.e(TAG, "Error scanning " + STICKER_ROOT, e);
+        paths = new LinkedHashMap<>();
+      }
+      sStickerPaths = paths;
+    }
+    return paths;
+  }
+
+  /** Asset path of every filter in filter_mapping.json, by filter id; empty if it is unreadable. */
+  public static Map<String, String> readFilterMapping(Context context) {
+    Map<String, String> paths = sFilterPaths;
+    if (paths != null) {
+      return paths;
+    }
+    paths = new LinkedHashMap<>();
+    try {
+      JSONObject filters = new JSONObject(new String(readAsset(context, FILTER_MAPPING),
+          StandardCharsets.UTF_8)).getJSONObject("filters");
+      Iterator<String> ids = filters.keys();
+      while (ids.hasNext()) {
+        String id = ids.next();
+        String category = filters.getJSONObject(id).optString("category", "portrait");
+        paths.put(id, "filters/" + category + "/" + id + "/" + id + ".fbd");
       }
+      sFilterPaths = paths;
+    } catch (IOException | JSONException e) {
+      Log.e(TAG, "Error reading " + FILTER_MAPPING, e);
     }
+    return paths;
   }
 
-  public static void registerStickers(BeautyEffectEngine engine, Context context) {
-    if (engine == null || context == null) return;
+  /**
+   * Reads a whole asset. Uncompressed assets (fbd packages, see noCompress in build.gradle) are
+   * read through their file descriptor straight into one array of the exact size; compressed ones
+   * fall back to streaming.
+   */
+  public static byte[] readAsset(Context context, String path) throws IOException {
+    AssetFileDescriptor fd;
     try {
-      InputStream is = context.getAssets().open("stickers/face/rabbit/rabbit.fbd");
-      int size = is.available();
-      byte[] buffer = new byte[size];
-      is.read(buffer);
-      is.close();
-
-      int result = engine.registerSticker("rabbit", buffer);
-      if (result == 0) {
-        Log.d(TAG, "Sticker registered: rabbit");
-      } else {
-        Log.e(TAG, "Failed to register rabbit sticker, result: " + result);
+      fd = context.getAssets().openFd(path);
+    } catch (FileNotFoundException e) {
+      // Compressed in the APK, no descriptor to read from
+      fd = null;
+    }
+    if (fd != null) {
+      long length = fd.getLength();
+      if (length >= 0 && length <= Integer.MAX_VALUE) {
+        byte[] data = new byte[(int) length];
+        // Closing the stream closes the descriptor too
+        try (FileInputStream in = fd.createInputStream()) {
+          int offset = 0;
+          while (offset < data.length) {
+            int read = in.read(data, offset, data.length - offset);
+            if (read < 0) {
+              throw new IOException("Unexpected end of " + path + " at " + offset + "/" + length);
+            }
+            offset += read;
+          }
+        }
+        return data;
       }
-    } catch (Exception e) {
-      Log.e(TAG, "Error registering rabbit sticker", e);
+      fd.close();
+    }
+    try (InputStream is = context.getAssets().open(path)) {
+      // available() is only a hint for compressed assets, so read until the end
+      ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(is.available(), 8192));
+      byte[] chunk = new byte[16 * 1024];
+      int read;
+      while ((read = is.read(chunk)) != -1) {
+        out.write(chunk, 0, read);
+      }
+      return out.toByteArray();
     }
   }
 
-  private BeautyResourceLoader() {}
+  /**
+   * Drops reads that have not started; registrations still waiting in the dispatcher are skipped.
+   * Call once the processing thread has stopped, so the engine can be released afterwards.
+   */
+  public void cancel() {
+    mCancelled = true;
+    mReadPool.shutdownNow();
+  }
 }
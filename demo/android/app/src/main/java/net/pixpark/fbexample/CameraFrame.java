@@ -0,0 +1,121 @@
+package net.pixpark.fbexample;
+
+import android.graphics.ImageFormat;
+import android.media.Image;
+import net.pixpark.facebetter.ImageFrame;
+import java.nio.ByteBuffer;
+
+/**
+ * Reusable upright I420 copy of a YUV_420_888 camera image. Lets the camera thread return the
+ * {@link Image} to the reader right away; the copy rotates and mirrors in the same pass, so the
+ * engine frame needs no rotate or mirror of its own. Buffers are pooled through {@link FramePool}.
+ */
+public final class CameraFrame {
+  public static final int FORMAT = ImageFormat.YUV_420_888;
+
+  /** Size of the camera image, before rotation. */
+  public final int width;
+  public final int height;
+  private final int mChromaWidth;
+  private final int mChromaHeight;
+  private ByteBuffer mYBuffer;
+  private ByteBuffer mUBuffer;
+  private ByteBuffer mVBuffer;
+  // One source row, for OrientationTransform.copyPlane
+  private byte[] mRow;
+  private OrientationTransform mTransform = OrientationTransform.of(0, false);
+  private long mTimestampNs;
+
+  public CameraFrame(int width, int height) {
+    this.width = width;
+    this.height = height;
+    mChromaWidth = (width + 1) / 2;
+    mChromaHeight = (height + 1) / 2;
+  }
+
+  /** Copies the planes of {@code image}, upright and mirrored as {@code transform} says. */
+  public void copyFrom(Image image, OrientationTransform transform) {
+    if (mYBuffer == null) {
+      // Packed planes, so the size only depends on the image size the pool keys on
+      mYBuffer = ByteBuffer.allocateDirect(width * height);
+      mUBuffer = ByteBuffer.allocateDirect(mChromaWidth * mChromaHeight);
+      mVBuffer = ByteBuffer.allocateDirect(mChromaWidth * mChromaHeight);
+    }
+    Image.Plane[] planes = image.getPlanes();
+    int rowBytes = Math.max(width, (mChromaWidth - 1) * planes[1].getPixelStride() + 1);
+    if (mRow == null || mRow.length < rowBytes) {
+      mRow = new byte[rowBytes];
+    }
+    transform.copyPlane(planes[0].getBuffer(), planes[0].getRowStride(),
+        planes[0].getPixelStride(), width, height, mYBuffer, mRow);
+    transform.copyPlane(planes[1].getBuffer(), planes[1].getRowStride(),
+        planes[1].getPixelStride(), mChromaWidth, mChromaHeight, mUBuffer, mRow);
+    transform.copyPlane(planes[2].getBuffer(), planes[2].getRowStride(),
+        planes[2].getPixelStride(), mChromaWidth, mChromaHeight, mVBuffer, mRow);
+    mTransform = transform;
+    mTimestampNs = image.getTimestamp();
+  }
+
+  /** Wraps the copied planes into an engine frame. Null on failure. */
+  public ImageFrame toImageFrame() {
+    return toImageFrame(ImageFrame.FrameType.VIDEO);
+  }
+
+  /** As {@link #toImageFrame()}; {@code IMAGE} asks the engine for its still-photo quality. */
+  public ImageFrame toImageFrame(ImageFrame.FrameType type) {
+    int outWidth = getOutputWidth();
+    int outChromaWidth = mTransform.rotatedWidth(mChromaWidth, mChromaHeight);
+    ImageFrame frame = ImageFrame.createWithAndroid420(outWidth, getOutputHeight(), mYBuffer,
+        outWidth, mUBuffer, outChromaWidth, mVBuffer, outChromaWidth, 1);
+    if (frame != null) {
+      frame.type = type;
+    }
+    return frame;
+  }
+
+  /**
+   * Copies {@code image} upright into a new frame and wraps it, for images read once, e.g.
+   * stills. The image can be closed as soon as this returns.
+   */
+  public static ImageFrame wrap(Image image, OrientationTransform transform,
+      ImageFrame.FrameType type) {
+    CameraFrame frame = new CameraFrame(image.getWidth(), image.getHeight());
+    frame.copyFrom(image, transform);
+    return frame.toImageFrame(type);
+  }
+
+  /** Width of the upright frame handed to the engine. */
+  public int getOutputWidth() {
+    return mTransform.rotatedWidth(width, height);
+  }
+
+  /** Height of the upright frame handed to the engine. */
+  public int getOutputHeight() {
+    return mTransform.rotatedHeight(width, height);
+  }
+
+  /** Sensor timestamp of the source image, in nanoseconds. */
+  public long getTimestampNs() {
+    return mTimestampNs;
+  }
+
+  /**
+   * Drops the plane buffers so the pool's budget is real memory: direct buffers live in the
+   * managed heap on ART, so they are reclaimed by the next GC. A later copyFrom reallocates.
+   */
+  public void release() {
+    mYBuffer = null;
+    mUBuffer = null;
+    mVBuffer = null;
+    mRow = null;
+  }
+
+  /** Bytes held by the plane buffers. */
+  public long getByteSize() {
+    return capacity(mYBuffer) + capacity(mUBuffer) + capacity(mVBuffer);
+  }
+
+  private static long capacity(ByteBuffer buffer) {
+    return buffer == null ? 0 : buffer.capacity();
+  }
+}
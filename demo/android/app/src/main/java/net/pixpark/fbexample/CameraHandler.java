@@ -11,6 +11,7 @@ import android.hardware.camera2.CameraCaptureSession;
 import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraDevice;
 import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureFailure;
 import android.hardware.camera2.CaptureRequest;
 import android.hardware.camera2.params.StreamConfigurationMap;
 import android.media.Image;
@@ -22,10 +23,13 @@ import android.util.Size;
 import android.view.Surface;
 import androidx.annotation.NonNull;
 import androidx.core.app.ActivityCompat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
@@ -38,12 +42,21 @@ public class CameraHandler {
   private CameraDevice mCameraDevice;
   private CameraCaptureSession mCaptureSession;
   private ImageReader mImageReader;
+  // Full-resolution YUV target, only written by captureStill(); null if the session cannot have it
+  private ImageReader mStillReader;
   private Size mPreviewSize;
+  private Size mStillSize;
   private HandlerThread mBackgroundThread;
   private Handler mBackgroundHandler;
   private Semaphore mCameraOpenCloseLock = new Semaphore(1);
   private int mSensorOrientation;
   private FrameCallback mFrameCallback;
+  private StillCallback mStillCallback;
+  // Stills handed to the callback and not released yet; closing their reader would free their
+  // buffers, so the close waits until they are all back
+  private final Object mStillLock = new Object();
+  private final Set<Image> mStillsInUse = new HashSet<>();
+  private final List<ImageReader> mStillReadersToClose = new ArrayList<>();
 
   private boolean mIsCameraOpened = false;
 
@@ -51,6 +64,16 @@ public class CameraHandler {
     void onFrameAvailable(Image image, int orientation);
   }
 
+  /**
+   * Result of {@link #captureStill()}, on the camera thread. The callee owns the image and hands
+   * it back with {@link #releaseStill}, from any thread.
+   */
+  public interface StillCallback {
+    void onStillAvailable(Image image, int orientation);
+
+    void onStillFailed();
+  }
+
   public CameraHandler(Context context) {
     mContext = context;
   }
@@ -59,6 +82,10 @@ public class CameraHandler {
     mFrameCallback = callback;
   }
 
+  public void setStillCallback(StillCallback callback) {
+    mStillCallback = callback;
+  }
+
   public void startCamera() {
     startBackgroundThread();
     openCamera();
@@ -124,6 +151,15 @@ public class CameraHandler {
           mPreviewSize.getWidth(), mPreviewSize.getHeight(), ImageFormat.YUV_420_888, 2);
       mImageReader.setOnImageAvailableListener(mOnImageAvailableListener, mBackgroundHandler);
 
+      // Stills come from a second, full-resolution stream with the preview's aspect ratio; the
+      // repeating preview request never targets it
+      mStillSize = chooseStillSize(map.getOutputSizes(ImageFormat.YUV_420_888), mPreviewSize);
+      if (mStillSize != null) {
+        mStillReader = ImageReader.newInstance(
+            mStillSize.getWidth(), mStillSize.getHeight(), ImageFormat.YUV_420_888, 1);
+        mStillReader.setOnImageAvailableListener(mOnStillAvailableListener, mBackgroundHandler);
+      }
+
       // Open camera
       if (!mCameraOpenCloseLock.tryAcquire(2500, TimeUnit.MILLISECONDS)) {
         throw new RuntimeException("Time out waiting to lock camera opening.");
@@ -202,6 +238,27 @@ public class CameraHandler {
     return bigEnough.get(bigEnough.size() - 1);
   }
 
+  /** Largest size with the aspect ratio of {@code preview}; null if none is bigger than it. */
+  private static Size chooseStillSize(Size[] choices, Size preview) {
+    if (choices == null) {
+      return null;
+    }
+    Size best = null;
+    for (Size option : choices) {
+      boolean sameAspect = (long) option.getWidth() * preview.getHeight()
+          == (long) option.getHeight() * preview.getWidth();
+      if (sameAspect && (best == null
+          || (long) option.getWidth() * option.getHeight() > (long) best.getWidth() * best.getHeight())) {
+        best = option;
+      }
+    }
+    if (best == null
+        || (long) best.getWidth() * best.getHeight() <= (long) preview.getWidth() * preview.getHeight()) {
+      return null;
+    }
+    return best;
+  }
+
   private final CameraDevice.StateCallback mStateCallback = new CameraDevice.StateCallback() {
     @Override
     public void onOpened(@NonNull CameraDevice cameraDevice) {
@@ -236,13 +293,18 @@ public class CameraHandler {
 
       // Create session
       Surface surface = mImageReader.getSurface();
+      List<Surface> outputs = new ArrayList<>();
+      outputs.add(surface);
+      if (mStillReader != null) {
+        outputs.add(mStillReader.getSurface());
+      }
 
       final CaptureRequest.Builder builder =
           mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
       builder.addTarget(surface);
 
       mCameraDevice.createCaptureSession(
-          Collections.singletonList(surface), new CameraCaptureSession.StateCallback() {
+          outputs, new CameraCaptureSession.StateCallback() {
             @Override
             public void onConfigured(@NonNull CameraCaptureSession cameraCaptureSession) {
               if (mCameraDevice == null)
@@ -267,6 +329,14 @@ public class CameraHandler {
 
             @Override
             public void onConfigureFailed(@NonNull CameraCaptureSession cameraCaptureSession) {
+              if (mStillReader != null && mCameraDevice != null) {
+                // Not every device can stream preview and full-size YUV together; keep preview
+                Log.w(TAG, "Session with still stream " + mStillSize + " rejected, retrying without");
+                closeStillReader(mStillReader);
+                mStillReader = null;
+                createCaptureSession();
+                return;
+              }
               Log.e(TAG, "Failed to configure capture session");
             }
           }, mBackgroundHandler);
@@ -294,6 +364,13 @@ public class CameraHandler {
         mImageReader = null;
       }
 
+      if (mStillReader != null) {
+        closeStillReader(mStillReader);
+        mStillReader = null;
+        // A still requested before closing will not arrive
+        notifyStillFailed();
+      }
+
       mIsCameraOpened = false;
     } catch (InterruptedException e) {
       Log.e(TAG, "Interrupted while trying to lock camera closing", e);
@@ -325,6 +402,118 @@ public class CameraHandler {
         }
       };
 
+  /**
+   * Requests one full-resolution frame on the still stream; the preview keeps running. The result
+   * arrives through the StillCallback, which also reports a request that fails later.
+   * @return false if stills are not available, e.g. the device rejected the extra stream
+   */
+  public boolean captureStill() {
+    Handler handler = mBackgroundHandler;
+    if (handler == null || !hasStillStream()) {
+      return false;
+    }
+    handler.post(() -> {
+      CameraCaptureSession session = mCaptureSession;
+      ImageReader stillReader = mStillReader;
+      if (mCameraDevice == null || session == null || stillReader == null) {
+        notifyStillFailed();
+        return;
+      }
+      try {
+        CaptureRequest.Builder builder =
+            mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
+        builder.addTarget(stillReader.getSurface());
+        builder.set(CaptureRequest.CONTROL_AF_MODE,
+            CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+        // Flash would need an AE precapture sequence first; without one it fires unmetered
+        builder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON);
+        session.capture(builder.build(), new CameraCaptureSession.CaptureCallback() {
+          @Override
+          public void onCaptureFailed(@NonNull CameraCaptureSession session,
+              @NonNull CaptureRequest request, @NonNull CaptureFailure failure) {
+            Log.e(TAG, "Still capture failed, reason: " + failure.getReason());
+            notifyStillFailed();
+          }
+        }, handler);
+      } catch (CameraAccessException | IllegalStateException e) {
+        Log.e(TAG, "Failed to request still capture", e);
+        notifyStillFailed();
+      }
+    });
+    return true;
+  }
+
+  /** Whether the open session has a full-resolution still stream. */
+  public boolean hasStillStream() {
+    return mStillReader != null;
+  }
+
+  public Size getStillSize() {
+    return mStillReader != null ? mStillSize : null;
+  }
+
+  /** Closes a still from {@link StillCallback#onStillAvailable}; call once per image. */
+  public void releaseStill(Image image) {
+    List<ImageReader> readers = null;
+    synchronized (mStillLock) {
+      image.close();
+      mStillsInUse.remove(image);
+      if (mStillsInUse.isEmpty() && !mStillReadersToClose.isEmpty()) {
+        readers = new ArrayList<>(mStillReadersToClose);
+        mStillReadersToClose.clear();
+      }
+    }
+    if (readers != null) {
+      for (ImageReader reader : readers) {
+        reader.close();
+      }
+    }
+  }
+
+  private void closeStillReader(ImageReader reader) {
+    synchronized (mStillLock) {
+      if (!mStillsInUse.isEmpty()) {
+        mStillReadersToClose.add(reader);
+        return;
+      }
+    }
+    reader.close();
+  }
+
+  private void notifyStillFailed() {
+    if (mStillCallback != null) {
+      mStillCallback.onStillFailed();
+    }
+  }
+
+  private final ImageReader.OnImageAvailableListener mOnStillAvailableListener =
+      new ImageReader.OnImageAvailableListener() {
+        @Override
+        public void onImageAvailable(ImageReader reader) {
+          Image image;
+          try {
+            image = reader.acquireNextImage();
+          } catch (IllegalStateException e) {
+            Log.e(TAG, "Failed to acquire still image", e);
+            notifyStillFailed();
+            return;
+          }
+          if (image == null)
+            return;
+
+          synchronized (mStillLock) {
+            mStillsInUse.add(image);
+          }
+          StillCallback callback = mStillCallback;
+          if (callback == null) {
+            releaseStill(image);
+            return;
+          }
+          // The callback owns the image from here
+          callback.onStillAvailable(image, mSensorOrientation);
+        }
+      };
+
   public boolean isCameraOpened() {
     return mIsCameraOpened;
   }
@@ -3,25 +3,57 @@ package net.pixpark.fbexample;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Process;
 import android.provider.MediaStore;
 import android.util.Log;
 import android.widget.Toast;
 import net.pixpark.facebetter.ImageFrame;
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
-/** Saves ImageFrame to file and gallery; callbacks may run on background thread. */
+/**
+ * Saves ImageFrame to the gallery; callbacks may run on background thread. The calling thread
+ * only copies the pixels; the JPEG is encoded straight into MediaStore on a small background
+ * pool. At most {@link #MAX_PENDING} captures are held at once; further ones are dropped before
+ * their pixels are copied, so rapid capture costs preview neither time nor unbounded memory.
+ */
 public final class CaptureFrameSaver {
   private static final String TAG = "CaptureFrameSaver";
   private static final String FILE_PREFIX = "FBExample_";
   private static final String FILE_SUFFIX = ".jpg";
   private static final int JPEG_QUALITY = 90;
+  private static final int ENCODE_THREADS = 2;
+  /** Captures copied but not yet written, each holding a full-size bitmap. */
+  public static final int MAX_PENDING = 6;
+
+  private static final AtomicInteger sThreadCount = new AtomicInteger();
+  private static final ThreadPoolExecutor sEncoder = new ThreadPoolExecutor(ENCODE_THREADS,
+      ENCODE_THREADS, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(MAX_PENDING), r -> {
+        Thread thread = new Thread(() -> {
+          // Below the render and processing threads, so encoding never takes their cores
+          Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+          r.run();
+        }, "CaptureEncoder-" + sThreadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+  private static final AtomicInteger sPending = new AtomicInteger();
+  private static final AtomicLong sDroppedCount = new AtomicLong();
+  // Time the caller (the GL thread) spends on a capture; this is what preview stalls for
+  private static final LatencyStats sSnapshotLatency = new LatencyStats("capture_snapshot");
+  private static final LatencyStats sEncodeLatency = new LatencyStats("capture_encode");
 
   public interface SaveResultListener {
     void onSuccess();
@@ -29,66 +61,153 @@ public final class CaptureFrameSaver {
     void onFailure();
   }
 
-  /** Writes frame to temp file then copies to MediaStore on background thread. */
+  /**
+   * Copies frame into a bitmap and returns; the frame is not kept and stays owned by the caller.
+   * The bitmap is encoded into a new MediaStore entry on the encoder pool. If too many captures
+   * are pending, the frame is dropped and the listener told of a failure.
+   */
   public static void save(ImageFrame frame, Context context, SaveResultListener listener) {
     if (frame == null || context == null || listener == null) {
       if (listener != null) listener.onFailure();
       return;
     }
+    if (sPending.incrementAndGet() > MAX_PENDING) {
+      sPending.decrementAndGet();
+      sDroppedCount.incrementAndGet();
+      Log.w(TAG, "Capture dropped, " + MAX_PENDING + " already pending");
+      listener.onFailure();
+      return;
+    }
 
-    String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).format(new Date());
-    String fileName = FILE_PREFIX + timeStamp + FILE_SUFFIX;
-    File tempFile = new File(context.getCacheDir(), fileName);
-    int result = frame.toFile(tempFile.getAbsolutePath(), JPEG_QUALITY);
-    if (result != 0 || !tempFile.exists()) {
-      Log.e(TAG, "ImageFrame.toFile failed or file not created, result=" + result);
+    long startNs = System.nanoTime();
+    Bitmap bitmap = snapshot(frame);
+    sSnapshotLatency.record(System.nanoTime() - startNs);
+    if (bitmap == null) {
+      sPending.decrementAndGet();
+      Log.e(TAG, "Failed to copy frame for capture, format=" + frame.getFormat());
       listener.onFailure();
       return;
     }
 
-    String tempPath = tempFile.getAbsolutePath();
-    new Thread(() -> {
-      boolean ok = addFileToGallery(context, tempPath, fileName);
-      if (!tempFile.delete()) {
-        tempFile.deleteOnExit();
-      }
+    // Milliseconds keep the names of a burst apart
+    String timeStamp =
+        new SimpleDateFormat("yyyyMMdd_HHmmss_SSS", Locale.getDefault()).format(new Date());
+    String fileName = FILE_PREFIX + timeStamp + FILE_SUFFIX;
+    Context appContext = context.getApplicationContext();
+    sEncoder.execute(() -> {
+      long encodeStartNs = System.nanoTime();
+      boolean ok = writeToGallery(appContext, bitmap, fileName);
+      bitmap.recycle();
+      sPending.decrementAndGet();
+      sEncodeLatency.record(System.nanoTime() - encodeStartNs);
       if (ok) {
         listener.onSuccess();
       } else {
         listener.onFailure();
       }
-    }).start();
+    });
   }
 
-  private static boolean addFileToGallery(Context context, String tempFilePath, String displayName) {
-    File tempFile = new File(tempFilePath);
-    if (!tempFile.exists()) {
-      return false;
+  /** Copies the pixels of frame into a new bitmap; null if the frame has no readable pixels. */
+  private static Bitmap snapshot(ImageFrame frame) {
+    ImageFrame rgba = frame;
+    if (frame.getFormat() != ImageFrame.Format.RGBA) {
+      rgba = frame.convert(ImageFrame.Format.RGBA);
+      if (rgba == null) {
+        return null;
+      }
+    }
+    try {
+      ByteBuffer data = rgba.getData();
+      int width = rgba.getWidth();
+      int height = rgba.getHeight();
+      int stride = rgba.getStride();
+      int rowBytes = width * 4;
+      if (data == null || width <= 0 || height <= 0 || stride < rowBytes
+          || data.capacity() < (long) stride * (height - 1) + rowBytes) {
+        return null;
+      }
+      // ARGB_8888 is laid out as RGBA bytes, so rows can be copied as they are
+      ByteBuffer src = data.duplicate();
+      ByteBuffer pixels;
+      if (stride == rowBytes) {
+        src.limit(rowBytes * height).position(0);
+        pixels = src;
+      } else {
+        pixels = ByteBuffer.allocate(rowBytes * height);
+        for (int y = 0; y < height; y++) {
+          src.limit(y * stride + rowBytes).position(y * stride);
+          pixels.put(src);
+        }
+        pixels.rewind();
+      }
+      Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+      bitmap.copyPixelsFromBuffer(pixels);
+      return bitmap;
+    } finally {
+      if (rgba != frame) {
+        rgba.release();
+      }
     }
+  }
+
+  /** Time captures held up the calling thread, i.e. how long preview stalled for each. */
+  public static LatencyStats getSnapshotLatency() {
+    return sSnapshotLatency;
+  }
+
+  public static LatencyStats getEncodeLatency() {
+    return sEncodeLatency;
+  }
+
+  /** Captures copied and waiting for, or in, encoding. */
+  public static int getQueueDepth() {
+    return sPending.get();
+  }
+
+  /** Captures dropped because {@link #MAX_PENDING} were already pending. */
+  public static long getDroppedCount() {
+    return sDroppedCount.get();
+  }
+
+  public static String getStats() {
+    return "CaptureFrameSaver{pending=" + getQueueDepth() + ", dropped=" + getDroppedCount()
+        + ", " + sSnapshotLatency + ", " + sEncodeLatency + "}";
+  }
+
+  /**
+   * Encodes bitmap as JPEG directly into a new MediaStore entry. On Android 10+ the entry stays
+   * pending, hidden from the gallery, until it is complete; a failed write removes it.
+   */
+  private static boolean writeToGallery(Context context, Bitmap bitmap, String displayName) {
     ContentResolver resolver = context.getContentResolver();
     ContentValues values = new ContentValues();
     values.put(MediaStore.Images.Media.DISPLAY_NAME, displayName);
     values.put(MediaStore.Images.Media.MIME_TYPE, "image/jpeg");
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+      values.put(MediaStore.Images.Media.IS_PENDING, 1);
+    }
     Uri uri = resolver.insert(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, values);
     if (uri == null) {
       Log.e(TAG, "Failed to create image URI");
       return false;
     }
-    try (FileInputStream fis = new FileInputStream(tempFile);
-         OutputStream os = resolver.openOutputStream(uri)) {
-      if (os != null) {
-        byte[] buf = new byte[8192];
-        int len;
-        while ((len = fis.read(buf)) > 0) {
-          os.write(buf, 0, len);
-        }
-        os.flush();
-      }
-      return true;
+    boolean ok = false;
+    try (OutputStream os = resolver.openOutputStream(uri)) {
+      ok = os != null && bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, os);
     } catch (IOException e) {
-      Log.e(TAG, "Error copying image to gallery", e);
+      Log.e(TAG, "Error writing image to gallery", e);
+    }
+    if (!ok) {
+      resolver.delete(uri, null, null);
       return false;
     }
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+      values.clear();
+      values.put(MediaStore.Images.Media.IS_PENDING, 0);
+      resolver.update(uri, values, null, null);
+    }
+    return true;
   }
 
   /** Show save success/failure toast (call from UI thread, e.g. in listener). */
@@ -8,7 +8,6 @@ import android.widget.TextView;
 import androidx.activity.EdgeToEdge;
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
-import java.io.InputStream;
 import net.pixpark.facebetter.BeautyEffectEngine;
 import net.pixpark.facebetter.BeautyParams;
 import net.pixpark.facebetter.BeautyParams.*;
@@ -194,13 +193,8 @@ public class ExternalTextureActivity
 
       // Register vivid LUT filter from assets
       if (!lutFilterRegistered) {
-        try (InputStream is = getAssets().open(LUT_ASSET_PATH)) {
-          int size = is.available();
-          byte[] buffer = new byte[size];
-          int read = is.read(buffer);
-          if (read != size) {
-            Log.w(TAG, "Vivid filter read short: " + read + "/" + size);
-          }
+        try {
+          byte[] buffer = BeautyResourceLoader.readAsset(this, LUT_ASSET_PATH);
           int ret = engine.registerFilter(LUT_FILTER_ID, buffer);
           if (ret == 0) {
             lutFilterRegistered = true;
@@ -215,13 +209,8 @@ public class ExternalTextureActivity
 
       // Register rabbit sticker from assets (for external texture mode SetSticker verification)
       if (!stickerRegistered) {
-          try (InputStream is = getAssets().open(STICKER_ASSET_PATH)) {
-            int size = is.available();
-            byte[] buffer = new byte[size];
-            int read = is.read(buffer);
-            if (read != size) {
-              Log.w(TAG, "Black glass sticker read short: " + read + "/" + size);
-            }
+        try {
+          byte[] buffer = BeautyResourceLoader.readAsset(this, STICKER_ASSET_PATH);
           int ret = engine.registerSticker(STICKER_ID, buffer);
           if (ret == 0) {
             stickerRegistered = true;
@@ -0,0 +1,136 @@
+package net.pixpark.fbexample;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Recycles frame buffers keyed by (width, height, format) so steady-state frame paths stop
+ * allocating. Released items are retained up to a byte budget; beyond that the oldest are freed.
+ * Thread-safe.
+ */
+public final class FramePool<T> {
+  /** Creates, frees and sizes pooled items. */
+  public interface Allocator<T> {
+    T allocate(int width, int height, int format);
+
+    void free(T item);
+
+    long sizeOf(T item);
+  }
+
+  private static final class Entry<T> {
+    final int width;
+    final int height;
+    final int format;
+    final T item;
+    final long bytes;
+
+    Entry(int width, int height, int format, T item, long bytes) {
+      this.width = width;
+      this.height = height;
+      this.format = format;
+      this.item = item;
+      this.bytes = bytes;
+    }
+
+    boolean matches(int width, int height, int format) {
+      return this.width == width && this.height == height && this.format == format;
+    }
+  }
+
+  private final Allocator<T> mAllocator;
+  private final long mMaxRetainedBytes;
+  // Oldest release first; the pool only ever holds a handful of frames, so a scan is fine
+  private final LinkedList<Entry<T>> mFree = new LinkedList<>();
+  private long mRetainedBytes = 0;
+  private long mHitCount = 0;
+  private long mMissCount = 0;
+  private long mEvictionCount = 0;
+
+  public FramePool(Allocator<T> allocator, long maxRetainedBytes) {
+    mAllocator = allocator;
+    mMaxRetainedBytes = maxRetainedBytes;
+  }
+
+  /** Returns a recycled item for the key, or a newly allocated one on a miss. */
+  public T acquire(int width, int height, int format) {
+    synchronized (this) {
+      Iterator<Entry<T>> it = mFree.descendingIterator();
+      while (it.hasNext()) {
+        Entry<T> entry = it.next();
+        if (entry.matches(width, height, format)) {
+          it.remove();
+          mRetainedBytes -= entry.bytes;
+          mHitCount++;
+          return entry.item;
+        }
+      }
+      mMissCount++;
+    }
+    return mAllocator.allocate(width, height, format);
+  }
+
+  /** Hands an item back for reuse. Items that do not fit the budget are freed. */
+  public void release(int width, int height, int format, T item) {
+    if (item == null) return;
+    long bytes = mAllocator.sizeOf(item);
+    List<T> evicted = new ArrayList<>();
+    synchronized (this) {
+      mFree.addLast(new Entry<>(width, height, format, item, bytes));
+      mRetainedBytes += bytes;
+      while (mRetainedBytes > mMaxRetainedBytes && !mFree.isEmpty()) {
+        Entry<T> oldest = mFree.removeFirst();
+        mRetainedBytes -= oldest.bytes;
+        mEvictionCount++;
+        evicted.add(oldest.item);
+      }
+    }
+    for (T stale : evicted) {
+      mAllocator.free(stale);
+    }
+  }
+
+  /** Frees every retained item. */
+  public void clear() {
+    List<T> retained = new ArrayList<>();
+    synchronized (this) {
+      for (Entry<T> entry : mFree) {
+        retained.add(entry.item);
+      }
+      mFree.clear();
+      mRetainedBytes = 0;
+    }
+    for (T item : retained) {
+      mAllocator.free(item);
+    }
+  }
+
+  public synchronized long getHitCount() {
+    return mHitCount;
+  }
+
+  public synchronized long getMissCount() {
+    return mMissCount;
+  }
+
+  /** Items freed because the pool was over its byte budget. */
+  public synchronized long getEvictionCount() {
+    return mEvictionCount;
+  }
+
+  public synchronized long getRetainedBytes() {
+    return mRetainedBytes;
+  }
+
+  public synchronized int getRetainedCount() {
+    return mFree.size();
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "FramePool{hits=" + mHitCount + ", misses=" + mMissCount + ", evictions="
+        + mEvictionCount + ", retained=" + mFree.size() + "/" + mRetainedBytes + "B}";
+  }
+}
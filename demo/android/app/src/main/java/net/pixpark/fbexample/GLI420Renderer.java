@@ -2,6 +2,7 @@ package net.pixpark.fbexample;
 
 import android.content.Context;
 import android.opengl.GLES20;
+import android.opengl.GLES30;
 import android.opengl.GLSurfaceView;
 import android.util.AttributeSet;
 import android.util.Log;
@@ -9,7 +10,9 @@ import net.pixpark.facebetter.ImageFrame;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import javax.microedition.khronos.egl.EGL10;
 import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.egl.EGLDisplay;
 import javax.microedition.khronos.opengles.GL10;
 
 public class GLI420Renderer extends GLSurfaceView implements GLSurfaceView.Renderer {
@@ -30,6 +33,20 @@ public class GLI420Renderer extends GLSurfaceView implements GLSurfaceView.Rende
     void releaseFrame(ImageFrame frame);
   }
 
+  /** Gets each frame again after it is drawn on screen, e.g. to draw it into a video encoder. */
+  public interface FrameSink {
+    /**
+     * Called on the GL thread while the frame's textures are still bound to it.
+     * @param redraw draws the frame again, full size, into the current surface and
+     *     viewport; the screen viewport is restored afterwards
+     */
+    void onFrameDrawn(ImageFrame frame, Runnable redraw);
+  }
+
+  // EGL_RECORDABLE_ANDROID: the config can back a MediaCodec input surface
+  private static final int EGL_RECORDABLE_ANDROID = 0x3142;
+  private static final int EGL_OPENGL_ES2_BIT = 4;
+
   private static final String TAG = "GLVideoRenderer";
 
   // Vertex shader for rendering YUV to RGB
@@ -62,6 +79,32 @@ public class GLI420Renderer extends GLSurfaceView implements GLSurfaceView.Rende
       + "  gl_FragColor = vec4(clamp(r, 0.0, 1.0), clamp(g, 0.0, 1.0), clamp(b, 0.0, 1.0), 1.0);\n"
       + "}\n";
 
+  // Fragment shader for NV12/NV21: Y plus one interleaved chroma plane uploaded as
+  // LUMINANCE_ALPHA, so the first chroma byte lands in .r and the second in .a
+  private static final String FRAGMENT_SHADER_SEMI_PLANAR = "precision mediump float;\n"
+      + "uniform sampler2D y_texture;\n"
+      + "uniform sampler2D uv_texture;\n"
+      + "uniform float vu_order;\n" // 0.0 for NV12 (UV), 1.0 for NV21 (VU)
+      + "varying vec2 v_texCoord;\n"
+      + "void main() {\n"
+      + "  float y = clamp(texture2D(y_texture, v_texCoord).r, 0.0, 1.0);\n"
+      + "  vec4 c = texture2D(uv_texture, v_texCoord);\n"
+      + "  float u = mix(c.r, c.a, vu_order) - 0.5;\n"
+      + "  float v = mix(c.a, c.r, vu_order) - 0.5;\n"
+      + "  float r = y + 1.402 * v;\n"
+      + "  float g = y - 0.344136 * u - 0.714136 * v;\n"
+      + "  float b = y + 1.772 * u;\n"
+      + "  gl_FragColor = vec4(clamp(r, 0.0, 1.0), clamp(g, 0.0, 1.0), clamp(b, 0.0, 1.0), 1.0);\n"
+      + "}\n";
+
+  // Fragment shader for RGBA frames, which need no colour conversion
+  private static final String FRAGMENT_SHADER_RGBA = "precision mediump float;\n"
+      + "uniform sampler2D rgba_texture;\n"
+      + "varying vec2 v_texCoord;\n"
+      + "void main() {\n"
+      + "  gl_FragColor = vec4(texture2D(rgba_texture, v_texCoord).rgb, 1.0);\n"
+      + "}\n";
+
   private int mProgram;
   private int mPositionHandle;
   private int mTexCoordHandle;
@@ -69,9 +112,39 @@ public class GLI420Renderer extends GLSurfaceView implements GLSurfaceView.Rende
   private int mUTextureHandle;
   private int mVTextureHandle;
 
-  private int[] mTextures = new int[3]; // Y, U, V textures
+  private int mSemiPlanarProgram;
+  private int mSpPositionHandle;
+  private int mSpTexCoordHandle;
+  private int mSpYTextureHandle;
+  private int mSpUVTextureHandle;
+  private int mSpVUOrderHandle;
+
+  private int mRgbaProgram;
+  private int mRgbaPositionHandle;
+  private int mRgbaTexCoordHandle;
+  private int mRgbaTextureHandle;
+
+  // Y, U, V textures; Y, UV for semi-planar frames; only the first for RGBA frames
+  private int[] mTextures = new int[3];
+  // Size and format each plane's texture storage was last allocated with; 0 means not allocated
+  private final int[] mPlaneWidths = new int[3];
+  private final int[] mPlaneHeights = new int[3];
+  private final int[] mPlaneFormats = new int[3];
+  // Written on the GL thread only
+  private volatile long mTextureReallocationCount = 0;
+  // GL_UNPACK_ROW_LENGTH is core in ES 3.0 and available on ES 2.0 via GL_EXT_unpack_subimage
+  private boolean mUnpackRowLengthSupported = false;
+  // Reused to pack padded rows when GL_UNPACK_ROW_LENGTH is not available
+  private ByteBuffer mStagingBuffer;
   private FloatBuffer mVertexBuffer;
   private FloatBuffer mTexCoordBuffer;
+  // Full-frame quad, for FrameSink redraws
+  private FloatBuffer mFullFrameVertexBuffer;
+  // Format of the textures uploaded for the last frame; null if the upload failed
+  private ImageFrame.Format mUploadedFormat;
+  private volatile FrameSink mFrameSink;
+  private final Runnable mRedrawForSink =
+      () -> drawUploaded(mFullFrameVertexBuffer, mTexCoordBuffer);
 
   // Video dimensions and viewport dimensions for aspect ratio calculation
   private int mVideoWidth = 0;
@@ -79,7 +152,6 @@ public class GLI420Renderer extends GLSurfaceView implements GLSurfaceView.Rende
   private int mViewportWidth = 0;
   private int mViewportHeight = 0;
 
-  // Horizontal mirror flag
   private boolean mRenderingEnabled = true;
   private FrameProvider mFrameProvider;
 
@@ -107,18 +179,6 @@ public class GLI420Renderer extends GLSurfaceView implements GLSurfaceView.Rende
       0.0f,
   };
 
-  // Texture coordinates for horizontal mirror
-  private static final float[] TEX_COORDS_MIRROR_X = {
-      1.0f,
-      1.0f,
-      0.0f,
-      1.0f,
-      1.0f,
-      0.0f,
-      0.0f,
-      0.0f,
-  };
-
   public GLI420Renderer(Context context) {
     super(context);
     init();
@@ -131,6 +191,7 @@ public class GLI420Renderer extends GLSurfaceView implements GLSurfaceView.Rende
 
   private void init() {
     setEGLContextClientVersion(2);
+    setEGLConfigChooser(new RecordableConfigChooser());
     setRenderer(this);
     setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
 
@@ -147,6 +208,47 @@ public class GLI420Renderer extends GLSurfaceView implements GLSurfaceView.Rende
     mTexCoordBuffer = bb.asFloatBuffer();
     mTexCoordBuffer.put(TEX_COORDS);
     mTexCoordBuffer.position(0);
+
+    mFullFrameVertexBuffer = ByteBuffer.allocateDirect(mVertices.length * 4)
+        .order(ByteOrder.nativeOrder()).asFloatBuffer();
+    mFullFrameVertexBuffer.put(mVertices);
+    mFullFrameVertexBuffer.position(0);
+  }
+
+  /**
+   * RGBA8888 config that can also render into a MediaCodec input surface, so a FrameSink can
+   * share this context; falls back to any ES 2.0 config without it.
+   */
+  private static final class RecordableConfigChooser implements GLSurfaceView.EGLConfigChooser {
+    @Override
+    public EGLConfig chooseConfig(EGL10 egl, EGLDisplay display) {
+      int[] recordable = {
+          EGL10.EGL_RED_SIZE, 8, EGL10.EGL_GREEN_SIZE, 8, EGL10.EGL_BLUE_SIZE, 8,
+          EGL10.EGL_ALPHA_SIZE, 8, EGL10.EGL_RENDERABLE_TYPE, EGL_OPENGL_ES2_BIT,
+          EGL_RECORDABLE_ANDROID, 1, EGL10.EGL_NONE,
+      };
+      EGLConfig config = choose(egl, display, recordable);
+      if (config == null) {
+        Log.w(TAG, "No recordable EGL config, recording will not be available");
+        config = choose(egl, display, new int[] {
+            EGL10.EGL_RED_SIZE, 8, EGL10.EGL_GREEN_SIZE, 8, EGL10.EGL_BLUE_SIZE, 8,
+            EGL10.EGL_RENDERABLE_TYPE, EGL_OPENGL_ES2_BIT, EGL10.EGL_NONE,
+        });
+      }
+      if (config == null) {
+        throw new IllegalArgumentException("No EGL config for OpenGL ES 2.0");
+      }
+      return config;
+    }
+
+    private static EGLConfig choose(EGL10 egl, EGLDisplay display, int[] attribs) {
+      EGLConfig[] configs = new EGLConfig[1];
+      int[] count = new int[1];
+      if (!egl.eglChooseConfig(display, attribs, configs, 1, count) || count[0] == 0) {
+        return null;
+      }
+      return configs[0];
+    }
   }
 
   @Override
@@ -168,8 +270,38 @@ public class GLI420Renderer extends GLSurfaceView implements GLSurfaceView.Rende
     mUTextureHandle = GLES20.glGetUniformLocation(mProgram, "u_texture");
     mVTextureHandle = GLES20.glGetUniformLocation(mProgram, "v_texture");
 
-    // Generate textures
+    mSemiPlanarProgram = createProgram(VERTEX_SHADER, FRAGMENT_SHADER_SEMI_PLANAR);
+    if (mSemiPlanarProgram == 0) {
+      Log.e(TAG, "Failed to create semi-planar shader program");
+    } else {
+      mSpPositionHandle = GLES20.glGetAttribLocation(mSemiPlanarProgram, "a_position");
+      mSpTexCoordHandle = GLES20.glGetAttribLocation(mSemiPlanarProgram, "a_texCoord");
+      mSpYTextureHandle = GLES20.glGetUniformLocation(mSemiPlanarProgram, "y_texture");
+      mSpUVTextureHandle = GLES20.glGetUniformLocation(mSemiPlanarProgram, "uv_texture");
+      mSpVUOrderHandle = GLES20.glGetUniformLocation(mSemiPlanarProgram, "vu_order");
+    }
+
+    mRgbaProgram = createProgram(VERTEX_SHADER, FRAGMENT_SHADER_RGBA);
+    if (mRgbaProgram == 0) {
+      Log.e(TAG, "Failed to create RGBA shader program");
+    } else {
+      mRgbaPositionHandle = GLES20.glGetAttribLocation(mRgbaProgram, "a_position");
+      mRgbaTexCoordHandle = GLES20.glGetAttribLocation(mRgbaProgram, "a_texCoord");
+      mRgbaTextureHandle = GLES20.glGetUniformLocation(mRgbaProgram, "rgba_texture");
+    }
+
+    String version = GLES20.glGetString(GLES20.GL_VERSION);
+    String extensions = GLES20.glGetString(GLES20.GL_EXTENSIONS);
+    mUnpackRowLengthSupported = (version != null && version.startsWith("OpenGL ES 3"))
+        || (extensions != null && extensions.contains("GL_EXT_unpack_subimage"));
+
+    // Generate textures; storage is allocated on the first frame
     GLES20.glGenTextures(3, mTextures, 0);
+    for (int i = 0; i < 3; i++) {
+      mPlaneWidths[i] = 0;
+      mPlaneHeights[i] = 0;
+      mPlaneFormats[i] = 0;
+    }
 
     // Configure textures
     for (int i = 0; i < 3; i++) {
@@ -193,6 +325,19 @@ public class GLI420Renderer extends GLSurfaceView implements GLSurfaceView.Rende
     }
   }
 
+  /**
+   * Whether frames in this format can be drawn without converting them first
+   */
+  public static boolean canDraw(ImageFrame.Format format) {
+    return format == ImageFrame.Format.I420 || format == ImageFrame.Format.NV12
+        || format == ImageFrame.Format.NV21 || format == ImageFrame.Format.RGBA;
+  }
+
+  /** Frames drawn from now on are also passed to {@code sink}; null stops that. */
+  public void setFrameSink(FrameSink sink) {
+    mFrameSink = sink;
+  }
+
   /**
    * Set frame provider
    * @param provider Frame provider
@@ -241,45 +386,132 @@ public class GLI420Renderer extends GLSurfaceView implements GLSurfaceView.Rende
     try {
       // 更新顶点坐标以保持视频宽高比
       updateVertexCoordinates(currentFrame);
-      
-      // Use shader program
-      GLES20.glUseProgram(mProgram);
 
-      // Update textures with the current frame
-      updateTextures(currentFrame);
+      ImageFrame.Format format = currentFrame.getFormat();
+      boolean uploaded;
+      if (format == ImageFrame.Format.RGBA) {
+        uploaded = uploadRgba(currentFrame);
+      } else if (format == ImageFrame.Format.NV12 || format == ImageFrame.Format.NV21) {
+        uploaded = uploadSemiPlanar(currentFrame);
+      } else {
+        uploaded = updateTextures(currentFrame);
+      }
+      mUploadedFormat = uploaded ? format : null;
+      if (!uploaded) {
+        return;
+      }
+      drawUploaded(mVertexBuffer, mTexCoordBuffer);
 
-      // Set vertex attributes
-      GLES20.glEnableVertexAttribArray(mPositionHandle);
-      GLES20.glVertexAttribPointer(mPositionHandle, 2, GLES20.GL_FLOAT, false, 0, mVertexBuffer);
+      FrameSink sink = mFrameSink;
+      if (sink != null) {
+        sink.onFrameDrawn(currentFrame, mRedrawForSink);
+        GLES20.glViewport(0, 0, mViewportWidth, mViewportHeight);
+      }
+    } finally {
+      // 通知FrameProvider帧已使用完毕，可以释放资源
+      if (mFrameProvider != null && currentFrame != null) {
+        mFrameProvider.releaseFrame(currentFrame);
+      }
+    }
+  }
 
-      GLES20.glEnableVertexAttribArray(mTexCoordHandle);
-      GLES20.glVertexAttribPointer(mTexCoordHandle, 2, GLES20.GL_FLOAT, false, 0, mTexCoordBuffer);
+  /** Draws the textures uploaded for the last frame with the program for their format. */
+  private void drawUploaded(FloatBuffer vertices, FloatBuffer texCoords) {
+    ImageFrame.Format format = mUploadedFormat;
+    if (format == ImageFrame.Format.RGBA) {
+      drawRgba(vertices, texCoords);
+    } else if (format == ImageFrame.Format.NV12 || format == ImageFrame.Format.NV21) {
+      drawSemiPlanar(format == ImageFrame.Format.NV21, vertices, texCoords);
+    } else if (format != null) {
+      drawI420(vertices, texCoords);
+    }
+  }
 
-      // Bind textures
-      GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-      GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextures[0]);
-      GLES20.glUniform1i(mYTextureHandle, 0);
+  private void drawI420(FloatBuffer vertices, FloatBuffer texCoords) {
+    // Use shader program
+    GLES20.glUseProgram(mProgram);
 
-      GLES20.glActiveTexture(GLES20.GL_TEXTURE1);
-      GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextures[1]);
-      GLES20.glUniform1i(mUTextureHandle, 1);
+    // Bind textures
+    GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextures[0]);
+    GLES20.glUniform1i(mYTextureHandle, 0);
 
-      GLES20.glActiveTexture(GLES20.GL_TEXTURE2);
-      GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextures[2]);
-      GLES20.glUniform1i(mVTextureHandle, 2);
+    GLES20.glActiveTexture(GLES20.GL_TEXTURE1);
+    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextures[1]);
+    GLES20.glUniform1i(mUTextureHandle, 1);
 
-      // Draw
-      GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+    GLES20.glActiveTexture(GLES20.GL_TEXTURE2);
+    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextures[2]);
+    GLES20.glUniform1i(mVTextureHandle, 2);
 
-      // Disable vertex arrays
-      GLES20.glDisableVertexAttribArray(mPositionHandle);
-      GLES20.glDisableVertexAttribArray(mTexCoordHandle);
-    } finally {
-      // 通知FrameProvider帧已使用完毕，可以释放资源
-      if (mFrameProvider != null && currentFrame != null) {
-        mFrameProvider.releaseFrame(currentFrame);
-      }
+    drawQuad(mPositionHandle, mTexCoordHandle, vertices, texCoords);
+  }
+
+  /** Upload an NV12/NV21 frame as is, without deinterleaving the chroma plane on the CPU. */
+  private boolean uploadSemiPlanar(ImageFrame frame) {
+    if (mSemiPlanarProgram == 0) {
+      return false;
+    }
+    int width = frame.getWidth();
+    int height = frame.getHeight();
+    GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+    // Semi-planar frames expose the interleaved chroma plane through the U accessors
+    return uploadPlane(0, frame.getDataY(), width, height, frame.getStrideY(),
+               GLES20.GL_LUMINANCE, "Y")
+        && uploadPlane(1, frame.getDataU(), (width + 1) / 2, (height + 1) / 2, frame.getStrideU(),
+               GLES20.GL_LUMINANCE_ALPHA, "UV");
+  }
+
+  private void drawSemiPlanar(boolean vuOrder, FloatBuffer vertices, FloatBuffer texCoords) {
+    GLES20.glUseProgram(mSemiPlanarProgram);
+
+    GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextures[0]);
+    GLES20.glUniform1i(mSpYTextureHandle, 0);
+
+    GLES20.glActiveTexture(GLES20.GL_TEXTURE1);
+    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextures[1]);
+    GLES20.glUniform1i(mSpUVTextureHandle, 1);
+    GLES20.glUniform1f(mSpVUOrderHandle, vuOrder ? 1.0f : 0.0f);
+
+    drawQuad(mSpPositionHandle, mSpTexCoordHandle, vertices, texCoords);
+  }
+
+  /** Upload an RGBA frame as-is; the engine output needs no YUV round trip. */
+  private boolean uploadRgba(ImageFrame frame) {
+    if (mRgbaProgram == 0) {
+      return false;
     }
+    GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+    return uploadPlane(0, frame.getData(), frame.getWidth(), frame.getHeight(), frame.getStride(),
+        GLES20.GL_RGBA, "RGBA");
+  }
+
+  private void drawRgba(FloatBuffer vertices, FloatBuffer texCoords) {
+    GLES20.glUseProgram(mRgbaProgram);
+
+    GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextures[0]);
+    GLES20.glUniform1i(mRgbaTextureHandle, 0);
+
+    drawQuad(mRgbaPositionHandle, mRgbaTexCoordHandle, vertices, texCoords);
+  }
+
+  private void drawQuad(int positionHandle, int texCoordHandle, FloatBuffer vertices,
+      FloatBuffer texCoords) {
+    // Set vertex attributes
+    GLES20.glEnableVertexAttribArray(positionHandle);
+    GLES20.glVertexAttribPointer(positionHandle, 2, GLES20.GL_FLOAT, false, 0, vertices);
+
+    GLES20.glEnableVertexAttribArray(texCoordHandle);
+    GLES20.glVertexAttribPointer(texCoordHandle, 2, GLES20.GL_FLOAT, false, 0, texCoords);
+
+    // Draw
+    GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+
+    // Disable vertex arrays
+    GLES20.glDisableVertexAttribArray(positionHandle);
+    GLES20.glDisableVertexAttribArray(texCoordHandle);
   }
 
   /**
@@ -351,93 +583,98 @@ public class GLI420Renderer extends GLSurfaceView implements GLSurfaceView.Rende
     mVertexBuffer.position(0);
   }
 
-  private void updateTextures(ImageFrame frame) {
+  private boolean updateTextures(ImageFrame frame) {
     int width = frame.getWidth();
     int height = frame.getHeight();
-    int strideY = frame.getStrideY();
-    int strideU = frame.getStrideU();
-    int strideV = frame.getStrideV();
+    // Chroma planes round up for odd sizes
+    int uvWidth = (width + 1) / 2;
+    int uvHeight = (height + 1) / 2;
 
     // Set pixel store alignment
     GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
 
-    // Update Y texture - handle stride properly
-    GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextures[0]);
-    ByteBuffer yBuffer = frame.getDataY();
-    if (yBuffer == null) {
-      Log.w(TAG, "Y plane buffer is null, skip frame");
-      return;
-    }
-    yBuffer.rewind();
+    return uploadPlane(0, frame.getDataY(), width, height, frame.getStrideY(),
+               GLES20.GL_LUMINANCE, "Y")
+        && uploadPlane(1, frame.getDataU(), uvWidth, uvHeight, frame.getStrideU(),
+               GLES20.GL_LUMINANCE, "U")
+        && uploadPlane(2, frame.getDataV(), uvWidth, uvHeight, frame.getStrideV(),
+               GLES20.GL_LUMINANCE, "V");
+  }
 
-    if (strideY == width) {
-      // No padding, upload directly
-      GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_LUMINANCE, width, height, 0,
-          GLES20.GL_LUMINANCE, GLES20.GL_UNSIGNED_BYTE, yBuffer);
-    } else {
-      // Handle stride by uploading row by row
-      GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_LUMINANCE, width, height, 0,
-          GLES20.GL_LUMINANCE, GLES20.GL_UNSIGNED_BYTE, null);
-      for (int y = 0; y < height; y++) {
-        yBuffer.position(y * strideY);
-        GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, y, width, 1, GLES20.GL_LUMINANCE,
-            GLES20.GL_UNSIGNED_BYTE, yBuffer);
-      }
+  /**
+   * Upload one plane with a single glTexSubImage2D call. Padded rows are skipped with
+   * GL_UNPACK_ROW_LENGTH when the context supports it, otherwise packed into a staging buffer.
+   * @param format GL_LUMINANCE, GL_LUMINANCE_ALPHA or GL_RGBA (1, 2 or 4 bytes per texel)
+   * @param stride row stride in bytes
+   */
+  private boolean uploadPlane(int index, ByteBuffer buffer, int width, int height, int stride,
+      int format, String name) {
+    if (buffer == null) {
+      Log.w(TAG, name + " plane buffer is null, skip frame");
+      return false;
     }
-
-    // Update U texture - handle stride properly
-    GLES20.glActiveTexture(GLES20.GL_TEXTURE1);
-    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextures[1]);
-    ByteBuffer uBuffer = frame.getDataU();
-    if (uBuffer == null) {
-      Log.w(TAG, "U plane buffer is null, skip frame");
-      return;
+    GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + index);
+    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextures[index]);
+    // Storage is only reallocated when the plane size or format changes; otherwise it is updated
+    // in place
+    if (width != mPlaneWidths[index] || height != mPlaneHeights[index]
+        || format != mPlaneFormats[index]) {
+      GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, format, width, height, 0, format,
+          GLES20.GL_UNSIGNED_BYTE, null);
+      mPlaneWidths[index] = width;
+      mPlaneHeights[index] = height;
+      mPlaneFormats[index] = format;
+      mTextureReallocationCount++;
+      Log.d(TAG, name + " texture allocated: " + width + "x" + height);
     }
-    uBuffer.rewind();
-
-    int uvWidth = width / 2;
-    int uvHeight = height / 2;
 
-    if (strideU == uvWidth) {
-      // No padding, upload directly
-      GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_LUMINANCE, uvWidth, uvHeight, 0,
-          GLES20.GL_LUMINANCE, GLES20.GL_UNSIGNED_BYTE, uBuffer);
-    } else {
-      // Handle stride by uploading row by row
-      GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_LUMINANCE, uvWidth, uvHeight, 0,
-          GLES20.GL_LUMINANCE, GLES20.GL_UNSIGNED_BYTE, null);
-      for (int y = 0; y < uvHeight; y++) {
-        uBuffer.position(y * strideU);
-        GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, y, uvWidth, 1, GLES20.GL_LUMINANCE,
-            GLES20.GL_UNSIGNED_BYTE, uBuffer);
-      }
+    buffer.rewind();
+    ByteBuffer pixels = buffer;
+    int bytesPerPixel = bytesPerPixel(format);
+    int rowBytes = width * bytesPerPixel;
+    boolean useRowLength = stride != rowBytes && mUnpackRowLengthSupported;
+    if (useRowLength) {
+      // Row length is in pixels, not bytes
+      GLES20.glPixelStorei(GLES30.GL_UNPACK_ROW_LENGTH, stride / bytesPerPixel);
+    } else if (stride != rowBytes) {
+      pixels = packRows(buffer, rowBytes, height, stride);
+    }
+    GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, width, height, format,
+        GLES20.GL_UNSIGNED_BYTE, pixels);
+    if (useRowLength) {
+      GLES20.glPixelStorei(GLES30.GL_UNPACK_ROW_LENGTH, 0);
     }
+    return true;
+  }
 
-    // Update V texture - handle stride properly
-    GLES20.glActiveTexture(GLES20.GL_TEXTURE2);
-    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextures[2]);
-    ByteBuffer vBuffer = frame.getDataV();
-    if (vBuffer == null) {
-      Log.w(TAG, "V plane buffer is null, skip frame");
-      return;
+  private static int bytesPerPixel(int format) {
+    switch (format) {
+      case GLES20.GL_RGBA:
+        return 4;
+      case GLES20.GL_LUMINANCE_ALPHA:
+        return 2;
+      default:
+        return 1;
     }
-    vBuffer.rewind();
+  }
 
-    if (strideV == uvWidth) {
-      // No padding, upload directly
-      GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_LUMINANCE, uvWidth, uvHeight, 0,
-          GLES20.GL_LUMINANCE, GLES20.GL_UNSIGNED_BYTE, vBuffer);
-    } else {
-      // Handle stride by uploading row by row
-      GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_LUMINANCE, uvWidth, uvHeight, 0,
-          GLES20.GL_LUMINANCE, GLES20.GL_UNSIGNED_BYTE, null);
-      for (int y = 0; y < uvHeight; y++) {
-        vBuffer.position(y * strideV);
-        GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, y, uvWidth, 1, GLES20.GL_LUMINANCE,
-            GLES20.GL_UNSIGNED_BYTE, vBuffer);
-      }
+  /** Copy the visible part of each row into the staging buffer, dropping the stride padding. */
+  private ByteBuffer packRows(ByteBuffer src, int rowBytes, int height, int stride) {
+    int size = rowBytes * height;
+    if (mStagingBuffer == null || mStagingBuffer.capacity() < size) {
+      mStagingBuffer = ByteBuffer.allocateDirect(size);
+    }
+    ByteBuffer staging = mStagingBuffer;
+    staging.clear();
+    ByteBuffer row = src.duplicate();
+    for (int y = 0; y < height; y++) {
+      int start = y * stride;
+      row.limit(start + rowBytes);
+      row.position(start);
+      staging.put(row);
     }
+    staging.flip();
+    return staging;
   }
 
   private int createProgram(String vertexSource, String fragmentSource) {
@@ -515,6 +752,14 @@ public class GLI420Renderer extends GLSurfaceView implements GLSurfaceView.Rende
     return new int[] {mVideoWidth, mVideoHeight};
   }
 
+  /**
+   * Number of times texture storage has been (re)allocated. Only grows on size changes and surface
+   * recreation; steady growth means frames keep changing size.
+   */
+  public long getTextureReallocationCount() {
+    return mTextureReallocationCount;
+  }
+
   /**
    * Get current viewport dimensions
    * @return Array containing width and height [width, height]
@@ -0,0 +1,146 @@
+package net.pixpark.fbexample;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Processed still-image results keyed by (source identity, parameter state). A hit returns the
+ * frame processed for exactly that source and those parameters, so redraws skip processImage.
+ * Entries are evicted least recently used first once the byte budget is exceeded. Not
+ * thread-safe: use it from the render thread only.
+ */
+public final class ImageResultCache<V> {
+  /** Sizes and frees cached values. */
+  public interface ValueHandler<V> {
+    long sizeOf(V value);
+
+    void release(V value);
+  }
+
+  private static final class Key {
+    final Object source;
+    final Object params;
+
+    Key(Object source, Object params) {
+      this.source = source;
+      this.params = params;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) return false;
+      Key other = (Key) o;
+      // Sources are compared by identity: a new Bitmap is a new image even if it looks the same
+      return source == other.source && params.equals(other.params);
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(source) * 31 + params.hashCode();
+    }
+  }
+
+  private static final class Entry<V> {
+    final V value;
+    final long bytes;
+
+    Entry(V value, long bytes) {
+      this.value = value;
+      this.bytes = bytes;
+    }
+  }
+
+  private final ValueHandler<V> mHandler;
+  private final long mMaxBytes;
+  private final LinkedHashMap<Key, Entry<V>> mEntries = new LinkedHashMap<>(8, 0.75f, true);
+  private long mBytes = 0;
+  private long mHitCount = 0;
+  private long mMissCount = 0;
+  private long mEvictionCount = 0;
+
+  public ImageResultCache(ValueHandler<V> handler, long maxBytes) {
+    mHandler = handler;
+    mMaxBytes = maxBytes;
+  }
+
+  /** Returns the cached result, still owned by the cache, or null on a miss. */
+  public V get(Object source, Object params) {
+    Entry<V> entry = mEntries.get(new Key(source, params));
+    if (entry == null) {
+      mMissCount++;
+      return null;
+    }
+    mHitCount++;
+    return entry.value;
+  }
+
+  /**
+   * Stores a result and takes ownership of it. Older entries are evicted to stay within budget.
+   * @return false if the value alone exceeds the budget; it is not stored and stays with the caller
+   */
+  public boolean put(Object source, Object params, V value) {
+    long bytes = mHandler.sizeOf(value);
+    if (bytes > mMaxBytes) {
+      return false;
+    }
+    Entry<V> previous = mEntries.put(new Key(source, params), new Entry<>(value, bytes));
+    mBytes += bytes;
+    if (previous != null) {
+      mBytes -= previous.bytes;
+      if (previous.value != value) {
+        mHandler.release(previous.value);
+      }
+    }
+    List<V> evicted = new ArrayList<>();
+    Iterator<Map.Entry<Key, Entry<V>>> it = mEntries.entrySet().iterator();
+    while (mBytes > mMaxBytes && it.hasNext()) {
+      Entry<V> eldest = it.next().getValue();
+      it.remove();
+      mBytes -= eldest.bytes;
+      mEvictionCount++;
+      evicted.add(eldest.value);
+    }
+    for (V stale : evicted) {
+      mHandler.release(stale);
+    }
+    return true;
+  }
+
+  /** Releases every cached result, e.g. when the source image changes. */
+  public void clear() {
+    for (Entry<V> entry : mEntries.values()) {
+      mHandler.release(entry.value);
+    }
+    mEntries.clear();
+    mBytes = 0;
+  }
+
+  public long getHitCount() {
+    return mHitCount;
+  }
+
+  public long getMissCount() {
+    return mMissCount;
+  }
+
+  public long getEvictionCount() {
+    return mEvictionCount;
+  }
+
+  public long getBytes() {
+    return mBytes;
+  }
+
+  public int size() {
+    return mEntries.size();
+  }
+
+  @Override
+  public String toString() {
+    return "ImageResultCache{hits=" + mHitCount + ", misses=" + mMissCount + ", evictions="
+        + mEvictionCount + ", entries=" + mEntries.size() + "/" + mBytes + "B}";
+  }
+}
@@ -0,0 +1,62 @@
+package net.pixpark.fbexample;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Thread-safe latency counter for one pipeline stage; values are recorded in nanoseconds. */
+public final class LatencyStats {
+  private final String mName;
+  private final AtomicLong mCount = new AtomicLong();
+  private final AtomicLong mTotalNs = new AtomicLong();
+  private final AtomicLong mMaxNs = new AtomicLong();
+  private final AtomicLong mLastNs = new AtomicLong();
+
+  public LatencyStats(String name) {
+    mName = name;
+  }
+
+  public void record(long elapsedNs) {
+    if (elapsedNs < 0) return;
+    mCount.incrementAndGet();
+    mTotalNs.addAndGet(elapsedNs);
+    mLastNs.set(elapsedNs);
+    long max = mMaxNs.get();
+    while (elapsedNs > max && !mMaxNs.compareAndSet(max, elapsedNs)) {
+      max = mMaxNs.get();
+    }
+  }
+
+  public String getName() {
+    return mName;
+  }
+
+  public long getCount() {
+    return mCount.get();
+  }
+
+  public long getAverageNs() {
+    long count = mCount.get();
+    return count == 0 ? 0 : mTotalNs.get() / count;
+  }
+
+  public long getMaxNs() {
+    return mMaxNs.get();
+  }
+
+  public long getLastNs() {
+    return mLastNs.get();
+  }
+
+  public void reset() {
+    mCount.set(0);
+    mTotalNs.set(0);
+    mMaxNs.set(0);
+    mLastNs.set(0);
+  }
+
+  @Override
+  public String toString() {
+    return String.format(Locale.US, "%s: n=%d avg=%.2fms max=%.2fms last=%.2fms", mName,
+        getCount(), getAverageNs() / 1e6, getMaxNs() / 1e6, getLastNs() / 1e6);
+  }
+}
@@ -0,0 +1,129 @@
+package net.pixpark.fbexample;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Orientation for a camera frame: the clockwise rotation that makes it upright for the engine, and
+ * whether it should be mirrored. Both are applied in one pass by {@link #copyPlane} before the
+ * engine sees the frame, so stickers and backgrounds are composited onto the mirrored face and
+ * read the right way round.
+ */
+public final class OrientationTransform {
+  // One shared instance per rotation/mirror pair, so the per-frame path does not allocate
+  private static final OrientationTransform[] INSTANCES = new OrientationTransform[8];
+
+  static {
+    for (int i = 0; i < INSTANCES.length; i++) {
+      INSTANCES[i] = new OrientationTransform((i >> 1) * 90, (i & 1) != 0);
+    }
+  }
+
+  /** Clockwise rotation in degrees: 0, 90, 180 or 270. */
+  public final int rotationDegrees;
+  /** Whether the frame should be displayed flipped horizontally. */
+  public final boolean mirror;
+
+  private OrientationTransform(int rotationDegrees, boolean mirror) {
+    this.rotationDegrees = rotationDegrees;
+    this.mirror = mirror;
+  }
+
+  /** Returns the transform for a clockwise rotation (any multiple of 90) and mirror flag. */
+  public static OrientationTransform of(int rotationDegrees, boolean mirror) {
+    return INSTANCES[normalize(rotationDegrees) / 90 * 2 + (mirror ? 1 : 0)];
+  }
+
+  /**
+   * @param sensorOrientation CameraCharacteristics.SENSOR_ORIENTATION
+   * @param frontFacing whether the frame comes from the front camera
+   * @param mirrorFront whether front camera frames are shown like a mirror
+   */
+  public static OrientationTransform forCamera(
+      int sensorOrientation, boolean frontFacing, boolean mirrorFront) {
+    return of(sensorOrientation, frontFacing && mirrorFront);
+  }
+
+  /** Width of the frame after rotation. */
+  public int rotatedWidth(int width, int height) {
+    return swapsAxes() ? height : width;
+  }
+
+  /** Height of the frame after rotation. */
+  public int rotatedHeight(int width, int height) {
+    return swapsAxes() ? width : height;
+  }
+
+  public boolean swapsAxes() {
+    return rotationDegrees == 90 || rotationDegrees == 270;
+  }
+
+  /**
+   * Copies one plane into {@code dst} as packed rows, rotated and mirrored in the same pass, so
+   * the frame needs no separate rotate or mirror afterwards. Leaves {@code src} where it was and
+   * {@code dst} at position 0.
+   * @param width samples per source row
+   * @param height source rows
+   * @param dst holds at least width * height bytes
+   * @param row scratch for one source row, at least (width - 1) * pixelStride + 1 bytes
+   */
+  public void copyPlane(ByteBuffer src, int rowStride, int pixelStride, int width, int height,
+      ByteBuffer dst, byte[] row) {
+    int dstWidth = rotatedWidth(width, height);
+    // Source sample (x, y) goes to origin + x * stepX + y * stepY; mirroring flips dst columns
+    int origin;
+    int stepX;
+    int stepY;
+    switch (rotationDegrees) {
+      case 90:
+        origin = mirror ? 0 : height - 1;
+        stepX = dstWidth;
+        stepY = mirror ? 1 : -1;
+        break;
+      case 180:
+        origin = (height - 1) * dstWidth + (mirror ? 0 : width - 1);
+        stepX = mirror ? 1 : -1;
+        stepY = -dstWidth;
+        break;
+      case 270:
+        origin = (width - 1) * dstWidth + (mirror ? height - 1 : 0);
+        stepX = -dstWidth;
+        stepY = mirror ? -1 : 1;
+        break;
+      default:
+        origin = mirror ? width - 1 : 0;
+        stepX = mirror ? -1 : 1;
+        stepY = dstWidth;
+        break;
+    }
+    int rowBytes = (width - 1) * pixelStride + 1;
+    int start = src.position();
+    for (int y = 0; y < height; y++) {
+      // Rows are read whole; the scatter below runs on the array
+      src.position(start + y * rowStride);
+      src.get(row, 0, rowBytes);
+      int index = origin + y * stepY;
+      if (stepX == 1 && pixelStride == 1) {
+        dst.position(index);
+        dst.put(row, 0, width);
+        continue;
+      }
+      for (int x = 0, i = 0; x < width; x++, i += pixelStride) {
+        dst.put(index, row[i]);
+        index += stepX;
+      }
+    }
+    src.position(start);
+    dst.position(0);
+  }
+
+  private static int normalize(int degrees) {
+    int normalized = ((degrees % 360) + 360) % 360;
+    // Sensor orientation is always a multiple of 90; snap anything else to the nearest
+    return (Math.round(normalized / 90f) * 90) % 360;
+  }
+
+  @Override
+  public String toString() {
+    return "OrientationTransform{rotation=" + rotationDegrees + ", mirror=" + mirror + "}";
+  }
+}
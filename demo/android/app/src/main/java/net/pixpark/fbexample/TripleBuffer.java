@@ -0,0 +1,139 @@
+package net.pixpark.fbexample;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free single-producer/single-consumer triple buffer.
+ *
+ * <p>The producer owns a back slot, the consumer owns a front slot, and the third slot is exchanged
+ * between them with one atomic swap, so neither side ever blocks the other. A publish that lands
+ * while the previous item is still pending overwrites it; the overwritten item is handed to the
+ * {@link Recycler} on the producer thread.
+ */
+public final class TripleBuffer<T> {
+  /** Disposes items that leave the buffer (overwritten, replaced or cleared). */
+  public interface Recycler<T> {
+    void recycle(T item);
+  }
+
+  private static final int INDEX_MASK = 0x3;
+  private static final int FRESH = 0x4;
+
+  private final Object[] mSlots = new Object[3];
+  private final Recycler<T> mRecycler;
+  // Index of the shared middle slot; FRESH is set when it holds an item the consumer has not seen.
+  private final AtomicInteger mMiddle = new AtomicInteger(1);
+  private int mBack = 0; // producer thread only
+  private int mFront = 2; // consumer thread only
+  private boolean mAcquired = false; // consumer thread only
+
+  private final AtomicLong mPublishedCount = new AtomicLong();
+  private final AtomicLong mConsumedCount = new AtomicLong();
+  private final AtomicLong mOverwrittenCount = new AtomicLong();
+  private final AtomicLong mDroppedCount = new AtomicLong();
+
+  public TripleBuffer(Recycler<T> recycler) {
+    mRecycler = recycler;
+  }
+
+  /**
+   * Producer side: hands {@code item} to the consumer. Never blocks.
+   * @return true if a pending item was overwritten before the consumer picked it up
+   */
+  public boolean publish(T item) {
+    mSlots[mBack] = item;
+    int previous = mMiddle.getAndSet(mBack | FRESH);
+    mBack = previous & INDEX_MASK;
+    mPublishedCount.incrementAndGet();
+
+    boolean overwritten = (previous & FRESH) != 0;
+    if (overwritten) {
+      mOverwrittenCount.incrementAndGet();
+      mDroppedCount.incrementAndGet();
+    }
+    // The slot we got back is exclusively ours: either the overwritten item or one the consumer
+    // has already moved past.
+    recycleSlot(mBack);
+    return overwritten;
+  }
+
+  /**
+   * Consumer side: returns the newest published item, or the previously acquired one when nothing
+   * new has arrived (so redraws keep showing the last frame). Returns null before the first publish.
+   * Every call must be paired with {@link #release()}.
+   */
+  @SuppressWarnings("unchecked")
+  public T acquire() {
+    if (mAcquired) {
+      throw new IllegalStateException("acquire() called twice without release()");
+    }
+    mAcquired = true;
+    int middle = mMiddle.get();
+    while ((middle & FRESH) != 0) {
+      if (mMiddle.compareAndSet(middle, mFront)) {
+        mFront = middle & INDEX_MASK;
+        mConsumedCount.incrementAndGet();
+        break;
+      }
+      middle = mMiddle.get();
+    }
+    return (T) mSlots[mFront];
+  }
+
+  /** Consumer side: ends the read started by {@link #acquire()}. */
+  public void release() {
+    if (!mAcquired) {
+      throw new IllegalStateException("release() called without acquire()");
+    }
+    mAcquired = false;
+  }
+
+  /** True if an item has been published that the consumer has not acquired yet. */
+  public boolean hasPending() {
+    return (mMiddle.get() & FRESH) != 0;
+  }
+
+  /**
+   * Recycles every held item. Only call once both producer and consumer have stopped.
+   */
+  public void clear() {
+    int middle = mMiddle.getAndUpdate(value -> value & INDEX_MASK);
+    if ((middle & FRESH) != 0) {
+      mDroppedCount.incrementAndGet();
+    }
+    for (int i = 0; i < mSlots.length; i++) {
+      recycleSlot(i);
+    }
+    mAcquired = false;
+  }
+
+  /** Items handed to {@link #publish}. */
+  public long getPublishedCount() {
+    return mPublishedCount.get();
+  }
+
+  /** Items the consumer picked up through {@link #acquire()}. */
+  public long getConsumedCount() {
+    return mConsumedCount.get();
+  }
+
+  /** Publishes that replaced an item still waiting for the consumer. */
+  public long getOverwrittenCount() {
+    return mOverwrittenCount.get();
+  }
+
+  /** Published items that were recycled without ever reaching the consumer. */
+  public long getDroppedCount() {
+    return mDroppedCount.get();
+  }
+
+  @SuppressWarnings("unchecked")
+  private void recycleSlot(int index) {
+    T stale = (T) mSlots[index];
+    mSlots[index] = null;
+    if (stale != null && mRecycler != null) {
+      mRecycler.recycle(stale);
+    }
+  }
+}
@@ -0,0 +1,362 @@
+package net.pixpark.fbexample;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLExt;
+import android.opengl.EGLSurface;
+import android.opengl.GLES20;
+import android.util.Log;
+import android.view.Surface;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the processed stream to an MP4 with the hardware encoder. Frames are drawn on the GL
+ * thread from the textures the renderer already uploaded into the encoder's input surface, so
+ * there is no CPU readback. Encoded output is drained and muxed on the recorder's own thread.
+ *
+ * <p>At most {@link #MAX_IN_FLIGHT} frames are handed to the encoder without an output buffer
+ * coming back; a frame beyond that is dropped rather than letting eglSwapBuffers block the GL
+ * thread, so recording never costs preview frames. Encoders may drop or merge input frames, so if
+ * nothing comes out for {@link #STALL_TIMEOUT_NS} the missing frames are written off.
+ *
+ * <p>The encoder size is fixed when recording starts; stop and start again for a new size.
+ */
+public final class VideoRecorder {
+  private static final String TAG = "VideoRecorder";
+  private static final int FRAME_RATE = 30;
+  private static final int I_FRAME_INTERVAL_SECONDS = 1;
+  // Bits per pixel per frame; about 8 Mbit/s at 720p30, ample for a beautified face
+  private static final float BITS_PER_PIXEL = 0.3f;
+  private static final int MAX_IN_FLIGHT = 4;
+  private static final long DRAIN_TIMEOUT_US = 10_000;
+  private static final long STALL_TIMEOUT_NS = 500_000_000L;
+  // How long the drain thread waits for the end of stream once stopped
+  private static final long STOP_TIMEOUT_NS = 2_000_000_000L;
+
+  /** Called on the recorder thread once the file is complete, or recording failed. */
+  public interface Listener {
+    void onRecordingFinished(File file, boolean success);
+  }
+
+  private final File mFile;
+  private final int mWidth;
+  private final int mHeight;
+  private final Listener mListener;
+  private final MediaCodec mCodec;
+  private final Surface mInputSurface;
+  private final MediaMuxer mMuxer;
+  private final Thread mDrainThread;
+
+  // GL thread only
+  private EGLDisplay mEglDisplay = EGL14.EGL_NO_DISPLAY;
+  private EGLSurface mEglSurface = EGL14.EGL_NO_SURFACE;
+  private boolean mEglFailed = false;
+  private long mFirstTimestampNs = -1;
+  private long mLastTimestampNs = -1;
+
+  private volatile boolean mStopping = false;
+  // System.nanoTime() after which the drain thread gives up on the end of stream; 0 until stopped
+  private volatile long mStopDeadlineNs = 0;
+  private boolean mInputEnded = false;
+  private final AtomicLong mSubmittedCount = new AtomicLong();
+  // Output buffers the encoder handed back, config and empty ones included
+  private final AtomicLong mCompletedCount = new AtomicLong();
+  private volatile long mLastOutputNs;
+  private final AtomicLong mEncodedCount = new AtomicLong();
+  private final AtomicLong mDroppedCount = new AtomicLong();
+  private final LatencyStats mDrawLatency = new LatencyStats("record_draw");
+
+  /**
+   * Sets up the encoder and starts the drain thread; frames are taken from {@link #encodeFrame}.
+   * @param width frame width, rounded down to even as encoders require
+   * @param preferHevc use HEVC when the device has an encoder for it, otherwise H.264
+   */
+  public static VideoRecorder start(File file, int width, int height, boolean preferHevc,
+      Listener listener) throws IOException {
+    return new VideoRecorder(file, width & ~1, height & ~1, preferHevc, listener);
+  }
+
+  private VideoRecorder(File file, int width, int height, boolean preferHevc, Listener listener)
+      throws IOException {
+    mFile = file;
+    mWidth = width;
+    mHeight = height;
+    mListener = listener;
+
+    MediaFormat format = null;
+    String encoder = null;
+    if (preferHevc) {
+      format = createFormat(MediaFormat.MIMETYPE_VIDEO_HEVC, width, height);
+      encoder = new MediaCodecList(MediaCodecList.REGULAR_CODECS).findEncoderForFormat(format);
+    }
+    if (encoder == null) {
+      format = createFormat(MediaFormat.MIMETYPE_VIDEO_AVC, width, height);
+      encoder = new MediaCodecList(MediaCodecList.REGULAR_CODECS).findEncoderForFormat(format);
+    }
+    if (encoder == null) {
+      throw new IOException("No encoder for " + width + "x" + height);
+    }
+    mCodec = MediaCodec.createByCodecName(encoder);
+    try {
+      mCodec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+      mInputSurface = mCodec.createInputSurface();
+      mMuxer = new MediaMuxer(file.getAbsolutePath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+      mCodec.start();
+    } catch (IOException | RuntimeException e) {
+      mCodec.release();
+      throw e instanceof IOException ? (IOException) e : new IOException(e);
+    }
+    Log.d(TAG, "Recording " + width + "x" + height + " with " + encoder + " to " + file);
+    mLastOutputNs = System.nanoTime();
+    mDrainThread = new Thread(this::drainLoop, "VideoRecorder");
+    mDrainThread.start();
+  }
+
+  private static MediaFormat createFormat(String mime, int width, int height) {
+    MediaFormat format = MediaFormat.createVideoFormat(mime, width, height);
+    format.setInteger(MediaFormat.KEY_COLOR_FORMAT,
+        MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+    format.setInteger(MediaFormat.KEY_BIT_RATE, (int) (width * height * FRAME_RATE * BITS_PER_PIXEL));
+    format.setInteger(MediaFormat.KEY_FRAME_RATE, FRAME_RATE);
+    format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, I_FRAME_INTERVAL_SECONDS);
+    return format;
+  }
+
+  /**
+   * GL thread: draws one frame into the encoder with {@code draw}, stamped with the camera
+   * timestamp of its source image. The renderer's context and surface are current again on return.
+   * @return false if the frame was dropped
+   */
+  public boolean encodeFrame(Runnable draw, long timestampNs) {
+    if (mStopping || mEglFailed) {
+      return false;
+    }
+    // Camera timestamps only ever increase; a repeat or step back is the same frame drawn again
+    if (timestampNs <= mLastTimestampNs) {
+      return false;
+    }
+    long inFlight = mSubmittedCount.get() - mCompletedCount.get();
+    if (inFlight >= MAX_IN_FLIGHT) {
+      if (System.nanoTime() - mLastOutputNs < STALL_TIMEOUT_NS) {
+        mDroppedCount.incrementAndGet();
+        return false;
+      }
+      // Nothing came out for a while: the encoder dropped or merged these, stop waiting for them
+      Log.w(TAG, "Encoder returned nothing for " + inFlight + " frames, writing them off");
+      mCompletedCount.addAndGet(inFlight);
+      mLastOutputNs = System.nanoTime();
+    }
+    EGLDisplay display = EGL14.eglGetCurrentDisplay();
+    EGLContext context = EGL14.eglGetCurrentContext();
+    EGLSurface drawSurface = EGL14.eglGetCurrentSurface(EGL14.EGL_DRAW);
+    EGLSurface readSurface = EGL14.eglGetCurrentSurface(EGL14.EGL_READ);
+    if (mEglSurface == EGL14.EGL_NO_SURFACE && !createEglSurface(display, context)) {
+      mEglFailed = true;
+      return false;
+    }
+
+    long startNs = System.nanoTime();
+    if (!EGL14.eglMakeCurrent(display, mEglSurface, mEglSurface, context)) {
+      Log.e(TAG, "eglMakeCurrent failed: " + EGL14.eglGetError());
+      mDroppedCount.incrementAndGet();
+      return false;
+    }
+    if (mFirstTimestampNs < 0) {
+      mFirstTimestampNs = timestampNs;
+    }
+    mLastTimestampNs = timestampNs;
+    GLES20.glViewport(0, 0, mWidth, mHeight);
+    GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+    draw.run();
+    EGLExt.eglPresentationTimeANDROID(display, mEglSurface, timestampNs - mFirstTimestampNs);
+    mSubmittedCount.incrementAndGet();
+    EGL14.eglSwapBuffers(display, mEglSurface);
+    EGL14.eglMakeCurrent(display, drawSurface, readSurface, context);
+    mDrawLatency.record(System.nanoTime() - startNs);
+    return true;
+  }
+
+  /** Window surface over the encoder input, in the config of the renderer's context. */
+  private boolean createEglSurface(EGLDisplay display, EGLContext context) {
+    int[] configId = new int[1];
+    EGL14.eglQueryContext(display, context, EGL14.EGL_CONFIG_ID, configId, 0);
+    EGLConfig[] configs = new EGLConfig[1];
+    int[] count = new int[1];
+    if (!EGL14.eglChooseConfig(display, new int[] {EGL14.EGL_CONFIG_ID, configId[0], EGL14.EGL_NONE},
+        0, configs, 0, 1, count, 0) || count[0] == 0) {
+      Log.e(TAG, "No EGL config for encoder surface");
+      return false;
+    }
+    mEglSurface = EGL14.eglCreateWindowSurface(display, configs[0], mInputSurface,
+        new int[] {EGL14.EGL_NONE}, 0);
+    if (mEglSurface == null || mEglSurface == EGL14.EGL_NO_SURFACE) {
+      Log.e(TAG, "eglCreateWindowSurface failed: " + EGL14.eglGetError());
+      mEglSurface = EGL14.EGL_NO_SURFACE;
+      return false;
+    }
+    mEglDisplay = display;
+    return true;
+  }
+
+  /**
+   * GL thread: releases the encoder surface and ends the input stream; the drain thread then
+   * finishes the file and reports to the listener. Queue it with GLSurfaceView.queueEvent, after
+   * calling {@link #stop()}.
+   */
+  public void stopOnGlThread() {
+    if (mEglSurface != EGL14.EGL_NO_SURFACE) {
+      EGL14.eglDestroySurface(mEglDisplay, mEglSurface);
+      mEglSurface = EGL14.EGL_NO_SURFACE;
+    }
+    stop();
+    synchronized (this) {
+      if (!mInputEnded) {
+        mInputEnded = true;
+        try {
+          mCodec.signalEndOfInputStream();
+        } catch (IllegalStateException e) {
+          Log.e(TAG, "Failed to end encoder input", e);
+          mDrainThread.interrupt();
+        }
+      }
+    }
+  }
+
+  /**
+   * Any thread: stops taking frames. If {@link #stopOnGlThread} has not ended the stream within
+   * {@link #STOP_TIMEOUT_NS}, e.g. because the GL thread went away first, the drain thread stops
+   * waiting and releases the encoder and muxer with what was written so far.
+   */
+  public void stop() {
+    mStopping = true;
+    synchronized (this) {
+      if (mStopDeadlineNs == 0) {
+        mStopDeadlineNs = System.nanoTime() + STOP_TIMEOUT_NS;
+      }
+    }
+  }
+
+  private void drainLoop() {
+    MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+    int track = -1;
+    boolean success = false;
+    try {
+      while (!Thread.currentThread().isInterrupted()) {
+        long deadlineNs = mStopDeadlineNs;
+        if (deadlineNs != 0 && System.nanoTime() - deadlineNs > 0) {
+          Log.w(TAG, "No end of stream within " + STOP_TIMEOUT_NS / 1_000_000 + "ms of stop");
+          synchronized (this) {
+            // A late stopOnGlThread must not touch the released encoder
+            mInputEnded = true;
+          }
+          // The samples written so far still make a valid file
+          success = track >= 0;
+          break;
+        }
+        int index = mCodec.dequeueOutputBuffer(info, DRAIN_TIMEOUT_US);
+        if (index == MediaCodec.INFO_TRY_AGAIN_LATER) {
+          continue;
+        }
+        if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+          track = mMuxer.addTrack(mCodec.getOutputFormat());
+          mMuxer.start();
+          continue;
+        }
+        if (index < 0) {
+          continue;
+        }
+        ByteBuffer data = mCodec.getOutputBuffer(index);
+        boolean config = (info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0;
+        if (!config && info.size > 0 && data != null && track >= 0) {
+          data.position(info.offset).limit(info.offset + info.size);
+          mMuxer.writeSampleData(track, data, info);
+          mEncodedCount.incrementAndGet();
+        }
+        mCodec.releaseOutputBuffer(index, false);
+        mCompletedCount.incrementAndGet();
+        mLastOutputNs = System.nanoTime();
+        if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+          success = track >= 0;
+          break;
+        }
+      }
+    } catch (IllegalStateException e) {
+      Log.e(TAG, "Encoder failed", e);
+    }
+    success = release(track >= 0) && success;
+    if (!success && !mFile.delete()) {
+      mFile.deleteOnExit();
+    }
+    Log.d(TAG, "Recording finished: " + this);
+    if (mListener != null) {
+      mListener.onRecordingFinished(mFile, success);
+    }
+  }
+
+  private boolean release(boolean muxerStarted) {
+    boolean ok = true;
+    try {
+      mCodec.stop();
+    } catch (IllegalStateException e) {
+      Log.e(TAG, "Failed to stop encoder", e);
+    }
+    mCodec.release();
+    mInputSurface.release();
+    try {
+      if (muxerStarted) {
+        mMuxer.stop();
+      }
+    } catch (IllegalStateException e) {
+      // Thrown when no sample was written
+      Log.e(TAG, "Failed to finish " + mFile, e);
+      ok = false;
+    }
+    mMuxer.release();
+    return ok;
+  }
+
+  /** Frames handed to the encoder that no output buffer has come back for yet. */
+  public long getQueueDepth() {
+    return Math.max(0, mSubmittedCount.get() - mCompletedCount.get());
+  }
+
+  /** Encoded size; frames of any other size cannot be recorded. */
+  public int getWidth() {
+    return mWidth;
+  }
+
+  public int getHeight() {
+    return mHeight;
+  }
+
+  /** Frames skipped because the encoder was {@link #MAX_IN_FLIGHT} frames behind. */
+  public long getDroppedCount() {
+    return mDroppedCount.get();
+  }
+
+  public long getEncodedCount() {
+    return mEncodedCount.get();
+  }
+
+  /** Time the GL thread spent drawing a frame into the encoder. */
+  public LatencyStats getDrawLatency() {
+    return mDrawLatency;
+  }
+
+  @Override
+  public String toString() {
+    return TAG + "{" + mWidth + "x" + mHeight + ", submitted=" + mSubmittedCount.get()
+        + ", encoded=" + mEncodedCount.get() + ", queue=" + getQueueDepth() + ", dropped="
+        + mDroppedCount.get() + ", " + mDrawLatency + "}";
+  }
+}
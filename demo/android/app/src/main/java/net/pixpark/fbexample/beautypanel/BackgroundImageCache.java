@@ -0,0 +1,139 @@
+package net.pixpark.fbexample.beautypanel;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decoded virtual-background images by background id, so reselecting a background reuses the
+ * frame built the first time instead of decoding it again. Values are loaded elsewhere, e.g. on a
+ * worker thread, and added with {@link #put}; {@link #acquireCached} picks them up. The
+ * background the engine currently uses is never released; everything else is released on
+ * eviction, {@link #trim()} or {@link #clear()}. Thread-safe.
+ */
+public final class BackgroundImageCache<V> {
+  /** Frees a value that left the cache. */
+  public interface Releaser<V> {
+    void release(V value);
+  }
+
+  private final Releaser<V> mReleaser;
+  private final int mMaxEntries;
+  private final LinkedHashMap<String, V> mEntries = new LinkedHashMap<>(4, 0.75f, true);
+  private String mInUseKey = null;
+  private long mHitCount = 0;
+  private long mLoadCount = 0;
+  private long mReleaseCount = 0;
+
+  public BackgroundImageCache(Releaser<V> releaser, int maxEntries) {
+    mReleaser = releaser;
+    mMaxEntries = Math.max(1, maxEntries);
+  }
+
+  /** Returns the cached value for {@code key} and marks it in use, or null without loading. */
+  public synchronized V acquireCached(String key) {
+    V value = mEntries.get(key);
+    if (value != null) {
+      mHitCount++;
+      mInUseKey = key;
+    }
+    return value;
+  }
+
+  /**
+   * Adds a value loaded elsewhere without marking it in use. If {@code key} is already cached and
+   * in use, the cached value stays and {@code value} is released.
+   */
+  public void put(String key, V value) {
+    List<V> released = new ArrayList<>();
+    synchronized (this) {
+      mLoadCount++;
+      V previous = mEntries.put(key, value);
+      if (previous != null && previous != value) {
+        // Loaded twice; keep the newer one unless the engine still uses the old one
+        if (key.equals(mInUseKey)) {
+          mEntries.put(key, previous);
+          released.add(value);
+        } else {
+          released.add(previous);
+        }
+      }
+      evictLocked(mMaxEntries, key, released);
+    }
+    releaseAll(released);
+  }
+
+  /** Marks that the engine no longer uses any cached background, e.g. after switching to blur. */
+  public synchronized void releaseInUse() {
+    mInUseKey = null;
+  }
+
+  /** Releases everything except the background in use; call on memory pressure. */
+  public void trim() {
+    List<V> released = new ArrayList<>();
+    synchronized (this) {
+      evictLocked(0, null, released);
+    }
+    releaseAll(released);
+  }
+
+  /** Releases everything, including the background in use; only when the engine is gone. */
+  public void clear() {
+    List<V> released;
+    synchronized (this) {
+      released = new ArrayList<>(mEntries.values());
+      mEntries.clear();
+      mInUseKey = null;
+      mReleaseCount += released.size();
+    }
+    for (V value : released) {
+      mReleaser.release(value);
+    }
+  }
+
+  /** Evicts least recently used first, never the entry in use or {@code keep}. */
+  private void evictLocked(int maxEntries, String keep, List<V> released) {
+    Iterator<Map.Entry<String, V>> it = mEntries.entrySet().iterator();
+    int remaining = mEntries.size();
+    while (remaining > maxEntries && it.hasNext()) {
+      Map.Entry<String, V> eldest = it.next();
+      if (eldest.getKey().equals(mInUseKey) || eldest.getKey().equals(keep)) {
+        continue;
+      }
+      it.remove();
+      remaining--;
+      released.add(eldest.getValue());
+    }
+    mReleaseCount += released.size();
+  }
+
+  private void releaseAll(List<V> released) {
+    for (V value : released) {
+      mReleaser.release(value);
+    }
+  }
+
+  public synchronized long getHitCount() {
+    return mHitCount;
+  }
+
+  public synchronized long getLoadCount() {
+    return mLoadCount;
+  }
+
+  public synchronized long getReleaseCount() {
+    return mReleaseCount;
+  }
+
+  public synchronized int size() {
+    return mEntries.size();
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "BackgroundImageCache{hits=" + mHitCount + ", loads=" + mLoadCount + ", released="
+        + mReleaseCount + ", entries=" + mEntries.size() + ", inUse=" + mInUseKey + "}";
+  }
+}
@@ -19,14 +19,24 @@ public class BeautyBarHandler {
     mRootView.findViewById(R.id.btn_close).setOnClickListener(v -> mListener.onClose());
     mRootView.findViewById(R.id.btn_gallery).setOnClickListener(v -> mListener.onOpenGallery());
     mRootView.findViewById(R.id.btn_flip_camera).setOnClickListener(v -> mListener.onFlipCamera());
-    mRootView.findViewById(R.id.btn_more).setOnClickListener(v -> mListener.onMore());
+    View more = mRootView.findViewById(R.id.btn_more);
+    more.setOnClickListener(v -> mListener.onMore());
+    more.setOnLongClickListener(v -> {
+      mListener.onToggleRecording();
+      return true;
+    });
     mRootView.findViewById(R.id.btn_before_after).setOnClickListener(v -> mListener.onBeforeAfter());
   }
 
   private void setupBottomBar() {
     mRootView.findViewById(R.id.btn_beauty_shape).setOnClickListener(v -> mListener.onBeautyPanelToggle());
     mRootView.findViewById(R.id.btn_makeup).setOnClickListener(v -> mListener.onOpenPanelTab("makeup"));
-    mRootView.findViewById(R.id.btn_capture).setOnClickListener(v -> mListener.onCapture());
+    View capture = mRootView.findViewById(R.id.btn_capture);
+    capture.setOnClickListener(v -> mListener.onCapture());
+    capture.setOnLongClickListener(v -> {
+      mListener.onCaptureBurst();
+      return true;
+    });
     mRootView.findViewById(R.id.btn_sticker).setOnClickListener(v -> mListener.onOpenPanelTab("sticker"));
     mRootView.findViewById(R.id.btn_filter).setOnClickListener(v -> mListener.onOpenPanelTab("filter"));
   }
@@ -6,8 +6,12 @@ public interface BeautyBarListener {
   void onOpenGallery();
   void onFlipCamera();
   void onMore();
+  /** Long press on the more button: starts or stops recording the processed preview. */
+  void onToggleRecording();
   void onBeforeAfter();
   void onBeautyPanelToggle();
   void onOpenPanelTab(String tab);
   void onCapture();
+  /** Long press on the capture button. */
+  void onCaptureBurst();
 }
@@ -1,7 +1,9 @@
 package net.pixpark.fbexample.beautypanel;
 
 import android.content.Context;
+import net.pixpark.fbexample.BeautyResourceLoader;
 import net.pixpark.fbexample.R;
+import java.util.Set;
 
 /** Tab + function list config; Controller builds views from this. */
 public final class BeautyPanelConfig {
@@ -88,31 +90,9 @@ public final class BeautyPanelConfig {
                 }),
         };
       case "filter":
-        return new FunctionConfig[] {
-            new FunctionConfig("initial_heart", context.getString(R.string.filter_initial_heart), R.drawable.lvjing, true, TYPE_SLIDER),
-            new FunctionConfig("first_love", context.getString(R.string.filter_first_love), R.drawable.lvjing, true, TYPE_SLIDER),
-            new FunctionConfig("vivid", context.getString(R.string.filter_vivid), R.drawable.lvjing, true, TYPE_SLIDER),
-            new FunctionConfig("confession", context.getString(R.string.filter_confession), R.drawable.lvjing, true, TYPE_SLIDER),
-            new FunctionConfig("milk_tea", context.getString(R.string.filter_milk_tea), R.drawable.lvjing, true, TYPE_SLIDER),
-            new FunctionConfig("mousse", context.getString(R.string.filter_mousse), R.drawable.lvjing, true, TYPE_SLIDER),
-            new FunctionConfig("japanese", context.getString(R.string.filter_japanese), R.drawable.lvjing, true, TYPE_SLIDER),
-            new FunctionConfig("dawn", context.getString(R.string.filter_dawn), R.drawable.lvjing, true, TYPE_SLIDER),
-            new FunctionConfig("cookie", context.getString(R.string.filter_cookie), R.drawable.lvjing, true, TYPE_SLIDER),
-            new FunctionConfig("lively", context.getString(R.string.filter_lively), R.drawable.lvjing, true, TYPE_SLIDER),
-            new FunctionConfig("pure", context.getString(R.string.filter_pure), R.drawable.lvjing, true, TYPE_SLIDER),
-            new FunctionConfig("fair", context.getString(R.string.filter_fair), R.drawable.lvjing, true, TYPE_SLIDER),
-            new FunctionConfig("snow", context.getString(R.string.filter_snow), R.drawable.lvjing, true, TYPE_SLIDER),
-            new FunctionConfig("plain", context.getString(R.string.filter_plain), R.drawable.lvjing, true, TYPE_SLIDER),
-            new FunctionConfig("natural", context.getString(R.string.filter_natural_portrait), R.drawable.lvjing, true, TYPE_SLIDER),
-            new FunctionConfig("rose", context.getString(R.string.filter_rose), R.drawable.lvjing, true, TYPE_SLIDER),
-            new FunctionConfig("extraordinary", context.getString(R.string.filter_extraordinary), R.drawable.lvjing, true, TYPE_SLIDER),
-            new FunctionConfig("tender", context.getString(R.string.filter_tender), R.drawable.lvjing, true, TYPE_SLIDER),
-            new FunctionConfig("tender_2", context.getString(R.string.filter_tender_2), R.drawable.lvjing, true, TYPE_SLIDER),
-        };
+        return getFilterFunctions(context);
       case "sticker":
-        return new FunctionConfig[] {
-            new FunctionConfig("rabbit", context.getString(R.string.sticker_rabbit), R.drawable.rabbit, true, TYPE_TOGGLE),
-        };
+        return getStickerFunctions(context);
       case "body":
         return new FunctionConfig[] {
             new FunctionConfig("slim", context.getString(R.string.body_slim), R.drawable.meiti, false, TYPE_SLIDER),
@@ -132,5 +112,44 @@ public final class BeautyPanelConfig {
     }
   }
 
+  /** One slider per filter in filter_mapping.json, see BeautyResourceLoader.readFilterMapping. */
+  private static FunctionConfig[] getFilterFunctions(Context context) {
+    Set<String> ids = BeautyResourceLoader.readFilterMapping(context).keySet();
+    FunctionConfig[] functions = new FunctionConfig[ids.size()];
+    int i = 0;
+    for (String id : ids) {
+      // filter_<id> string if there is one, otherwise a readable name
+      int labelRes = context.getResources().getIdentifier("filter_" + id, "string", context.getPackageName());
+      String label = labelRes != 0 ? context.getString(labelRes) : toLabel(id);
+      functions[i++] = new FunctionConfig(id, label, R.drawable.lvjing, true, TYPE_SLIDER);
+    }
+    return functions;
+  }
+
+  /** One toggle per sticker package found in assets, see BeautyResourceLoader.scanStickers. */
+  private static FunctionConfig[] getStickerFunctions(Context context) {
+    Set<String> ids = BeautyResourceLoader.scanStickers(context).keySet();
+    FunctionConfig[] functions = new FunctionConfig[ids.size()];
+    int i = 0;
+    for (String id : ids) {
+      // Optional sticker_<id> string and <id> drawable; otherwise a readable name and the tab icon
+      int labelRes = context.getResources().getIdentifier("sticker_" + id, "string", context.getPackageName());
+      String label = labelRes != 0 ? context.getString(labelRes) : toLabel(id);
+      int iconRes = context.getResources().getIdentifier(id, "drawable", context.getPackageName());
+      functions[i++] = new FunctionConfig(id, label, iconRes != 0 ? iconRes : R.drawable.tiezhi, true, TYPE_TOGGLE);
+    }
+    return functions;
+  }
+
+  private static String toLabel(String id) {
+    StringBuilder label = new StringBuilder();
+    for (String word : id.split("_")) {
+      if (word.isEmpty()) continue;
+      if (label.length() > 0) label.append(' ');
+      label.append(Character.toUpperCase(word.charAt(0))).append(word.substring(1));
+    }
+    return label.toString();
+  }
+
   private BeautyPanelConfig() {}
 }
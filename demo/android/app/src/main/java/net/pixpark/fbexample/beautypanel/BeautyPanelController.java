@@ -33,9 +33,14 @@ public class BeautyPanelController {
     void onCaptureRequested();
   }
 
+  /** The presets button was tapped; the host lists presets to apply and offers saving one. */
+  public interface OnPresetsRequest {
+    void onPresetsRequested();
+  }
+
   /** Single callback or separate listeners. */
   public interface BeautyParamCallback extends OnBeautyParamChange, OnBeautyReset,
-      OnBeautyTabReset, OnImageSelectionRequest, OnCaptureRequest {}
+      OnBeautyTabReset, OnImageSelectionRequest, OnCaptureRequest, OnPresetsRequest {}
 
   private BeautyParamCallback mBeautyParamCallback;
   private OnBeautyParamChange mOnParamChange;
@@ -43,6 +48,7 @@ public class BeautyPanelController {
   private OnBeautyTabReset mOnTabReset;
   private OnImageSelectionRequest mOnImageRequest;
   private OnCaptureRequest mOnCaptureRequest;
+  private OnPresetsRequest mOnPresetsRequest;
 
   private View mRootView;
   private android.content.Context mContext;
@@ -66,6 +72,7 @@ public class BeautyPanelController {
   // Bottom buttons
   private LinearLayout mBottomButtonContainer;
   private LinearLayout mBtnResetBeauty;
+  private LinearLayout mBtnPresets;
   private ImageButton mBtnCapturePanel;
   private LinearLayout mBtnHidePanel;
 
@@ -123,6 +130,7 @@ public class BeautyPanelController {
     // Bottom buttons
     mBottomButtonContainer = beautyPanelLayout.findViewById(R.id.bottom_button_container);
     mBtnResetBeauty = beautyPanelLayout.findViewById(R.id.btn_reset_beauty);
+    mBtnPresets = beautyPanelLayout.findViewById(R.id.btn_presets);
     mBtnCapturePanel = beautyPanelLayout.findViewById(R.id.btn_capture_panel);
     mBtnHidePanel = beautyPanelLayout.findViewById(R.id.btn_hide_panel);
 
@@ -148,6 +156,8 @@ public class BeautyPanelController {
     // Bottom buttons
     if (mBtnResetBeauty != null)
       mBtnResetBeauty.setOnClickListener(v -> onResetBeautyClicked());
+    if (mBtnPresets != null)
+      mBtnPresets.setOnClickListener(v -> dispatchPresetsRequest());
     if (mBtnCapturePanel != null)
       mBtnCapturePanel.setOnClickListener(v -> onCaptureClicked());
     if (mBtnHidePanel != null)
@@ -416,6 +426,20 @@ public class BeautyPanelController {
     }
   }
 
+  /**
+   * Turn off the visual state of every saved toggle under the current Tab
+   */
+  private void clearToggleButtonVisuals() {
+    if (mCurrentTab == null)
+      return;
+    String prefix = mCurrentTab + ":";
+    for (String key : mToggleStates.keySet()) {
+      if (key.startsWith(prefix)) {
+        updateToggleButtonVisual(key.substring(prefix.length()), false);
+      }
+    }
+  }
+
   private View createFunctionButton(String key, String label, int iconRes, boolean enabled,
       int buttonType, View.OnClickListener onClick) {
     // Outer container: width 70dp, content vertically centered
@@ -620,6 +644,29 @@ public class BeautyPanelController {
     mFunctionProgress.clear();
   }
 
+  /**
+   * Updates the saved slider progress and toggle states to match {@code snapshot}, e.g. after a
+   * preset was applied. Does not dispatch anything; the caller applies the snapshot itself.
+   */
+  public void syncToSnapshot(BeautyParamSnapshot snapshot) {
+    clearToggleButtonVisuals();
+    mFunctionProgress.clear();
+    mToggleStates.clear();
+    for (BeautyParamSnapshot.Param param : snapshot.getParams()) {
+      String key = buildFunctionKey(param.tab, param.function);
+      if ("sticker".equals(param.tab) || "virtual_bg".equals(param.tab)) {
+        mToggleStates.put(key, true);
+      } else {
+        mFunctionProgress.put(key, Math.round(param.value * 100));
+      }
+    }
+    mCurrentFunction = null;
+    hideSubOptions();
+    hideSlider();
+    restoreToggleButtonStates();
+    updateSelectionIndicators();
+  }
+
   public void setBeautyParamCallback(BeautyParamCallback callback) {
     mBeautyParamCallback = callback;
   }
@@ -644,6 +691,10 @@ public class BeautyPanelController {
     mOnCaptureRequest = listener;
   }
 
+  public void setOnPresetsRequest(OnPresetsRequest listener) {
+    mOnPresetsRequest = listener;
+  }
+
   private void dispatchParamChange(String tab, String function, float value) {
     if (mOnParamChange != null) {
       mOnParamChange.onBeautyParamChanged(tab, function, value);
@@ -684,6 +735,14 @@ public class BeautyPanelController {
     }
   }
 
+  private void dispatchPresetsRequest() {
+    if (mOnPresetsRequest != null) {
+      mOnPresetsRequest.onPresetsRequested();
+    } else if (mBeautyParamCallback != null) {
+      mBeautyParamCallback.onPresetsRequested();
+    }
+  }
+
   private void onCaptureClicked() {
     dispatchCaptureRequest();
   }
@@ -3,25 +3,83 @@ package net.pixpark.fbexample.beautypanel;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import android.widget.Toast;
 import net.pixpark.facebetter.BeautyEffectEngine;
 import net.pixpark.facebetter.BeautyParams.*;
 import net.pixpark.facebetter.ImageFrame;
+import net.pixpark.fbexample.BeautyResourceLoader;
 import net.pixpark.fbexample.R;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 /** Maps panel tab/function/value to engine API; applies params, reset, and virtual_bg preset. */
-public class BeautyParamApplier {
+public class BeautyParamApplier implements ParamDispatcher.ParamSink {
   private static final String TAG = "BeautyParamApplier";
+  // Tabs cleared by reset; sticker, body and quality have nothing to reset
+  private static final String[] RESETTABLE_TABS = {"beauty", "reshape", "makeup", "virtual_bg", "filter"};
+
+  // Bound on the long side of a background decoded before the processing size is known
+  private static final int MAX_BACKGROUND_SIZE = 1920;
+  // Preset backgrounds kept decoded besides the one in use
+  private static final int MAX_CACHED_BACKGROUNDS = 3;
+  // Resident budget for registered filters: room for about eight, enough to flick through the tab
+  public static final long DEFAULT_FILTER_BUDGET_BYTES = 10L * 1024 * 1024;
+  // What the engine keeps per registered filter besides the package: a 512x512 RGBA LUT
+  private static final long FILTER_LUT_BYTES = 512 * 512 * 4;
 
   private final BeautyEffectEngine mEngine;
   private final Context mContext;
+  private final BackgroundImageCache<ImageFrame> mBackgrounds =
+      new BackgroundImageCache<>(ImageFrame::release, MAX_CACHED_BACKGROUNDS);
+  // Decodes and scales backgrounds so the processing thread never waits on it
+  private final ExecutorService mBackgroundLoader = Executors.newSingleThreadExecutor(
+      r -> new Thread(r, "BackgroundLoader"));
+  private final Set<String> mLoadingBackgrounds = new HashSet<>();
+  private volatile int mProcessingWidth = 0;
+  private volatile int mProcessingHeight = 0;
+  private volatile Runnable mBackgroundReadyListener;
+  private final FilterRegistry mFilters;
+  private volatile StickerCatalog mStickers;
+  private volatile BeautyResourceLoader mResourceLoader;
+  // What has been applied to the engine; replaced, never mutated, so any thread can read it
+  private volatile BeautyParamSnapshot mSnapshot = BeautyParamSnapshot.EMPTY;
+  // Selections per single-selection tab still waiting for their resource; the engine keeps the
+  // previous one meanwhile
+  private final Map<String, BeautyParamSnapshot.Param> mPending = new ConcurrentHashMap<>();
 
   public BeautyParamApplier(Context context, BeautyEffectEngine engine) {
+    this(context, engine, DEFAULT_FILTER_BUDGET_BYTES);
+  }
+
+  /** @param filterBudgetBytes estimated engine memory that registered filters may keep resident */
+  public BeautyParamApplier(Context context, BeautyEffectEngine engine, long filterBudgetBytes) {
     mContext = context.getApplicationContext();
     mEngine = engine;
+    mFilters = new FilterRegistry(new FilterRegistry.Backend() {
+      @Override
+      public void load(String id, FilterRegistry.Callback done) {
+        loadFilter(id, done);
+      }
+
+      @Override
+      public void unregister(String id) {
+        mEngine.unregisterFilter(id);
+        Log.d(TAG, "Filter unregistered: " + id);
+      }
+    }, filterBudgetBytes);
   }
 
+  @Override
   public void apply(String tab, String function, float value) {
     if (mEngine == null) {
       Log.w(TAG, "BeautyEngine not initialized");
@@ -29,127 +87,372 @@ public class BeautyParamApplier {
     }
 
     try {
+      boolean applied;
       switch (tab) {
         case "beauty":
-          applyBeautyBasic(function, value);
+          applied = applyBeautyBasic(function, value);
           break;
         case "reshape":
-          applyReshape(function, value);
+          applied = applyReshape(function, value);
           break;
         case "makeup":
-          applyMakeup(function, value);
+          applied = applyMakeup(function, value);
           break;
         case "virtual_bg":
-          applyVirtualBackground(function, value);
+          applied = applyVirtualBackground(function, value);
           break;
         case "filter":
-          applyFilter(function, value);
+          applied = applyFilter(function, value);
           break;
         case "sticker":
-          applySticker(function, value);
+          applied = applySticker(function, value);
           break;
         default:
           Log.w(TAG, "Unknown tab: " + tab);
-          break;
+          return;
+      }
+      // The snapshot tracks the engine, so a selection that did not reach it is left out
+      if (applied) {
+        mSnapshot = mSnapshot.with(tab, function, value);
+        if (BeautyParamSnapshot.isSingleSelectionTab(tab)) {
+          mPending.remove(tab);
+        }
       }
     } catch (Exception e) {
       Log.e(TAG, "Error applying beauty param", e);
     }
   }
 
-  private void applyBeautyBasic(String function, float value) {
+  /** Parameters currently applied to the engine. */
+  public BeautyParamSnapshot snapshot() {
+    return mSnapshot;
+  }
+
+  private boolean applyBeautyBasic(String function, float value) {
     switch (function) {
       case "white":
         mEngine.setBeautyParam(BasicParam.WHITENING, value);
-        Log.d(TAG, "Set WHITENING: " + value);
-        break;
+        return true;
       case "smooth":
         mEngine.setBeautyParam(BasicParam.SMOOTHING, value);
-        Log.d(TAG, "Set SMOOTHING: " + value);
-        break;
+        return true;
       case "rosiness":
         mEngine.setBeautyParam(BasicParam.ROSINESS, value);
-        Log.d(TAG, "Set ROSINESS: " + value);
-        break;
+        return true;
       default:
         Log.w(TAG, "Unknown beauty function: " + function);
-        break;
+        return false;
     }
   }
 
-  private void applyReshape(String function, float value) {
+  private boolean applyReshape(String function, float value) {
     ReshapeParam param = mapToReshapeParam(function);
-    if (param != null) {
-      mEngine.setBeautyParam(param, value);
-      Log.d(TAG, "Set " + param + ": " + value);
-    } else {
+    if (param == null) {
       Log.w(TAG, "Unknown reshape function: " + function);
+      return false;
     }
+    mEngine.setBeautyParam(param, value);
+    return true;
   }
 
-  private void applyMakeup(String function, float value) {
+  private boolean applyMakeup(String function, float value) {
     MakeupParam param = mapToMakeupParam(function);
-    if (param != null) {
-      mEngine.setBeautyParam(param, value);
-      Log.d(TAG, "Set " + param + ": " + value);
-    } else {
+    if (param == null) {
       Log.w(TAG, "Unknown makeup function: " + function);
+      return false;
     }
+    mEngine.setBeautyParam(param, value);
+    return true;
   }
 
-  private void applyVirtualBackground(String function, float value) {
+  /** @return whether the engine now shows {@code function}; false while its resource loads */
+  private boolean applyVirtualBackground(String function, float value) {
     VirtualBackgroundOptions options = new VirtualBackgroundOptions();
     if ("none".equals(function)) {
       options.mode = BackgroundMode.NONE;
       mEngine.setVirtualBackground(options);
+      mBackgrounds.releaseInUse();
       Log.d(TAG, "Set virtual background: NONE");
+      return true;
     } else if ("blur".equals(function)) {
       options.mode = BackgroundMode.BLUR;
       mEngine.setVirtualBackground(options);
+      mBackgrounds.releaseInUse();
       Log.d(TAG, "Set virtual background: BLUR");
+      return true;
     } else if ("preset".equals(function)) {
-      Bitmap presetBitmap = BitmapFactory.decodeResource(mContext.getResources(), R.drawable.back_mobile);
-      if (presetBitmap != null) {
-        ImageFrame imageFrame = ImageFrame.createWithBitmap(presetBitmap);
-        if (imageFrame != null) {
-          options.mode = BackgroundMode.IMAGE;
-          options.backgroundImage = imageFrame;
-          mEngine.setVirtualBackground(options);
-          Log.d(TAG, "Preset background set: " + presetBitmap.getWidth() + "x" + presetBitmap.getHeight());
-        } else {
-          Log.e(TAG, "Failed to create ImageFrame from bitmap");
-          Toast.makeText(mContext, mContext.getString(R.string.failed_to_load_preset_background), Toast.LENGTH_SHORT).show();
-        }
-      } else {
-        Log.e(TAG, "Failed to load preset background bitmap");
-        Toast.makeText(mContext, mContext.getString(R.string.failed_to_load_preset_background_image), Toast.LENGTH_SHORT).show();
+      String key = backgroundKey(function);
+      ImageFrame imageFrame = mBackgrounds.acquireCached(key);
+      if (imageFrame != null) {
+        options.mode = BackgroundMode.IMAGE;
+        options.backgroundImage = imageFrame;
+        mEngine.setVirtualBackground(options);
+        Log.d(TAG, "Preset background set: " + key + ", " + mBackgrounds);
+        return true;
       }
+      // Keep the current background until the scaled one is ready; refreshBackground() swaps it in
+      mPending.put("virtual_bg", new BeautyParamSnapshot.Param("virtual_bg", function, value));
+      loadBackgroundAsync(key, R.drawable.back_mobile);
+      return false;
     } else if (function != null && function.startsWith("image")) {
       Log.w(TAG, "BACKGROUND_IMAGE not implemented, function=" + function);
     } else {
       Log.w(TAG, "Unknown virtual_bg function: " + function);
     }
+    return false;
+  }
+
+  /**
+   * Sets the size of the frames the engine processes, after rotation. Backgrounds are scaled to
+   * it once; when it changes, e.g. after switching cameras, the background in use is rescaled.
+   */
+  public void setProcessingSize(int width, int height) {
+    if (width == mProcessingWidth && height == mProcessingHeight) {
+      return;
+    }
+    mProcessingWidth = width;
+    mProcessingHeight = height;
+    String selection = selection("virtual_bg");
+    if ("preset".equals(selection)) {
+      loadBackgroundAsync(backgroundKey(selection), R.drawable.back_mobile);
+    }
+  }
+
+  /**
+   * Called on the loader thread once a background is scaled and cached. The receiver should run
+   * {@link #refreshBackground()} on the processing thread, e.g. through
+   * {@link ParamDispatcher#postTask}.
+   */
+  public void setBackgroundReadyListener(Runnable listener) {
+    mBackgroundReadyListener = listener;
+  }
+
+  /** Re-applies the selected background, picking up one that finished loading. */
+  public void refreshBackground() {
+    String selection = selection("virtual_bg");
+    if (selection != null) {
+      apply("virtual_bg", selection, 1.0f);
+    }
+  }
+
+  /**
+   * Stickers are registered through the catalog when selected; without one they must already be
+   * registered.
+   */
+  public void setStickerCatalog(StickerCatalog catalog) {
+    mStickers = catalog;
+  }
+
+  /** Reads and registers filters when first selected; without one no filter can be set. */
+  public void setResourceLoader(BeautyResourceLoader loader) {
+    mResourceLoader = loader;
+  }
+
+  /**
+   * Applies filter and sticker selections that were waiting for their resource. Runs on the
+   * processing thread once a filter or sticker is registered.
+   */
+  public void refreshRegisteredResources() {
+    for (String tab : new String[] {"filter", "sticker"}) {
+      BeautyParamSnapshot.Param pending = mPending.get(tab);
+      if (pending != null) {
+        apply(pending.tab, pending.function, pending.value);
+      }
+    }
+  }
+
+  /** The tab's latest selection: the one waiting for its resource, else the applied one. */
+  private String selection(String tab) {
+    BeautyParamSnapshot.Param pending = mPending.get(tab);
+    return pending != null ? pending.function : mSnapshot.getSelection(tab);
+  }
+
+  private String backgroundKey(String function) {
+    return function + "@" + mProcessingWidth + "x" + mProcessingHeight;
+  }
+
+  private void loadBackgroundAsync(String key, int resId) {
+    synchronized (mLoadingBackgrounds) {
+      if (!mLoadingBackgrounds.add(key)) {
+        return;
+      }
+    }
+    int width = mProcessingWidth;
+    int height = mProcessingHeight;
+    try {
+      mBackgroundLoader.execute(() -> {
+        ImageFrame imageFrame = loadBackground(resId, width, height);
+        if (imageFrame != null) {
+          mBackgrounds.put(key, imageFrame);
+        }
+        synchronized (mLoadingBackgrounds) {
+          mLoadingBackgrounds.remove(key);
+        }
+        Runnable listener = mBackgroundReadyListener;
+        if (imageFrame != null && listener != null) {
+          listener.run();
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // Released
+      synchronized (mLoadingBackgrounds) {
+        mLoadingBackgrounds.remove(key);
+      }
+    }
+  }
+
+  /**
+   * Decodes a background resource and scales it down to just cover width x height, keeping its
+   * aspect ratio, so the engine does not resample a full-size image every frame. With no size
+   * yet, the long side is bounded to MAX_BACKGROUND_SIZE.
+   */
+  private ImageFrame loadBackground(int resId, int width, int height) {
+    long startNs = System.nanoTime();
+    BitmapFactory.Options bounds = new BitmapFactory.Options();
+    bounds.inJustDecodeBounds = true;
+    BitmapFactory.decodeResource(mContext.getResources(), resId, bounds);
+    if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+      Log.e(TAG, "Failed to load preset background bitmap");
+      showToast(R.string.failed_to_load_preset_background_image);
+      return null;
+    }
+    float scale;
+    if (width > 0 && height > 0) {
+      scale = Math.max((float) width / bounds.outWidth, (float) height / bounds.outHeight);
+    } else {
+      scale = (float) MAX_BACKGROUND_SIZE / Math.max(bounds.outWidth, bounds.outHeight);
+    }
+    scale = Math.min(scale, 1.0f);
+    int targetWidth = Math.max(1, Math.round(bounds.outWidth * scale));
+    int targetHeight = Math.max(1, Math.round(bounds.outHeight * scale));
+
+    // Subsample while decoding as far as it stays above the target, then scale the rest
+    BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inSampleSize = 1;
+    while (bounds.outWidth / (options.inSampleSize * 2) >= targetWidth
+        && bounds.outHeight / (options.inSampleSize * 2) >= targetHeight) {
+      options.inSampleSize *= 2;
+    }
+    Bitmap bitmap = BitmapFactory.decodeResource(mContext.getResources(), resId, options);
+    if (bitmap == null) {
+      Log.e(TAG, "Failed to load preset background bitmap");
+      showToast(R.string.failed_to_load_preset_background_image);
+      return null;
+    }
+    if (bitmap.getWidth() != targetWidth || bitmap.getHeight() != targetHeight) {
+      Bitmap scaled = Bitmap.createScaledBitmap(bitmap, targetWidth, targetHeight, true);
+      if (scaled != bitmap) {
+        bitmap.recycle();
+        bitmap = scaled;
+      }
+    }
+    ImageFrame imageFrame = ImageFrame.createWithBitmap(bitmap);
+    if (imageFrame == null) {
+      Log.e(TAG, "Failed to create ImageFrame from bitmap");
+      showToast(R.string.failed_to_load_preset_background);
+      return null;
+    }
+    Log.d(TAG, "Background " + bounds.outWidth + "x" + bounds.outHeight + " -> " + targetWidth + "x"
+        + targetHeight + " for " + width + "x" + height + " in "
+        + (System.nanoTime() - startNs) / 1000000 + "ms");
+    return imageFrame;
+  }
+
+  private void showToast(int resId) {
+    // apply() runs on the processing thread; toasts need the main looper
+    new Handler(Looper.getMainLooper()).post(
+        () -> Toast.makeText(mContext, mContext.getString(resId), Toast.LENGTH_SHORT).show());
+  }
+
+  /** Registered filters and how often a selection found its filter already registered. */
+  public FilterRegistry getFilterRegistry() {
+    return mFilters;
+  }
+
+  /** Releases decoded backgrounds that are not in use; call from onTrimMemory. */
+  public void trimMemory() {
+    mBackgrounds.trim();
+  }
+
+  /** Releases every decoded background; call once the engine is released. */
+  public void release() {
+    mBackgroundLoader.shutdownNow();
+    try {
+      // A load still running would put its frame into the cache after the clear
+      mBackgroundLoader.awaitTermination(1, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    mBackgrounds.clear();
   }
 
-  private void applyFilter(String function, float value) {
+  private boolean applyFilter(String function, float value) {
     if ("none".equals(function) || value == 0.0f) {
       mEngine.setFilter("");
       Log.d(TAG, "Filter disabled");
-    } else {
-      mEngine.setFilter(function);
-      mEngine.setFilterIntensity(value);
+      return true;
+    }
+    if (!mFilters.acquire(function)) {
+      if (mFilters.isLoading(function)) {
+        // Keep the current filter until this one is registered, then refreshRegisteredResources()
+        mPending.put("filter", new BeautyParamSnapshot.Param("filter", function, value));
+      } else {
+        Log.w(TAG, "Filter not available: " + function);
+      }
+      return false;
+    }
+    mEngine.setFilter(function);
+    mEngine.setFilterIntensity(value);
+    if (Log.isLoggable(TAG, Log.DEBUG)) {
       Log.d(TAG, "Set filter: " + function + ", intensity: " + value);
     }
+    return true;
+  }
+
+  /**
+   * Reads the filter package off the processing thread and registers it at the next flush. Once it
+   * is registered, a selection waiting for it is applied in the same flush.
+   */
+  private void loadFilter(String id, FilterRegistry.Callback done) {
+    BeautyResourceLoader loader = mResourceLoader;
+    if (loader == null) {
+      Log.e(TAG, "No resource loader to register filter: " + id);
+      done.onLoaded(-1);
+      return;
+    }
+    try {
+      loader.registerFilter(id).whenComplete((timing, error) -> {
+        if (timing == null || !timing.isRegistered()) {
+          done.onLoaded(-1);
+          mPending.computeIfPresent("filter",
+              (tab, pending) -> id.equals(pending.function) ? null : pending);
+          return;
+        }
+        done.onLoaded(timing.bytes + FILTER_LUT_BYTES);
+        refreshRegisteredResources();
+      });
+    } catch (RejectedExecutionException e) {
+      // Loader cancelled on destroy
+      done.onLoaded(-1);
+    }
   }
 
-  private void applySticker(String function, float value) {
+  private boolean applySticker(String function, float value) {
     if ("none".equals(function) || value == 0.0f) {
       mEngine.setSticker("");
       Log.d(TAG, "Sticker disabled");
-    } else {
-      mEngine.setSticker(function);
-      Log.d(TAG, "Set sticker: " + function);
+      return true;
+    }
+    StickerCatalog stickers = mStickers;
+    if (stickers != null && !stickers.select(function)) {
+      // Loads in the background; refreshRegisteredResources() sets it once registered
+      mPending.put("sticker", new BeautyParamSnapshot.Param("sticker", function, value));
+      Log.d(TAG, "Sticker loading: " + function + ", " + stickers);
+      return false;
     }
+    mEngine.setSticker(function);
+    Log.d(TAG, "Set sticker: " + function);
+    return true;
   }
 
   private static ReshapeParam mapToReshapeParam(String function) {
@@ -190,85 +493,48 @@ public class BeautyParamApplier {
     }
   }
 
-  public void resetAll() {
+  /**
+   * Moves the engine to {@code target}, calling it only for parameters that differ from the
+   * current state. Posted through {@link ParamDispatcher} it runs between two frames, so no frame
+   * sees a half-applied reset or preset.
+   */
+  @Override
+  public void applySnapshot(BeautyParamSnapshot target) {
     if (mEngine == null) {
       Log.w(TAG, "BeautyEngine not initialized");
       return;
     }
-    try {
-      mEngine.setBeautyParam(BasicParam.WHITENING, 0.0f);
-      mEngine.setBeautyParam(BasicParam.SMOOTHING, 0.0f);
-      mEngine.setBeautyParam(BasicParam.ROSINESS, 0.0f);
-
-      mEngine.setBeautyParam(ReshapeParam.FACE_THIN, 0.0f);
-      mEngine.setBeautyParam(ReshapeParam.FACE_V_SHAPE, 0.0f);
-      mEngine.setBeautyParam(ReshapeParam.FACE_NARROW, 0.0f);
-      mEngine.setBeautyParam(ReshapeParam.FACE_SHORT, 0.0f);
-      mEngine.setBeautyParam(ReshapeParam.CHEEKBONE, 0.0f);
-      mEngine.setBeautyParam(ReshapeParam.JAWBONE, 0.0f);
-      mEngine.setBeautyParam(ReshapeParam.CHIN, 0.0f);
-      mEngine.setBeautyParam(ReshapeParam.NOSE_SLIM, 0.0f);
-      mEngine.setBeautyParam(ReshapeParam.EYE_SIZE, 0.0f);
-      mEngine.setBeautyParam(ReshapeParam.EYE_DISTANCE, 0.0f);
-
-      mEngine.setBeautyParam(MakeupParam.LIPSTICK, 0.0f);
-      mEngine.setBeautyParam(MakeupParam.BLUSH, 0.0f);
-
-      VirtualBackgroundOptions options = new VirtualBackgroundOptions();
-      options.mode = BackgroundMode.NONE;
-      mEngine.setVirtualBackground(options);
-
-      mEngine.setFilter("");
-      mEngine.setFilterIntensity(0.0f);
+    // A selection still loading is dropped unless the target keeps it
+    mPending.values().removeIf(
+        pending -> !pending.function.equals(target.getSelection(pending.tab)));
+    List<BeautyParamSnapshot.Param> changes = mSnapshot.diffTo(target);
+    if (changes.isEmpty()) {
+      return;
+    }
+    for (BeautyParamSnapshot.Param change : changes) {
+      apply(change.tab, change.function, change.value);
+    }
+    Log.d(TAG, "Applied snapshot with " + changes.size() + " engine updates");
+  }
 
-      Log.d(TAG, "All beauty params reset to 0");
-    } catch (Exception e) {
-      Log.e(TAG, "Error resetting beauty params", e);
+  /** Resets every tab except stickers, which keep their selection. */
+  @Override
+  public void resetAll() {
+    BeautyParamSnapshot target = mSnapshot;
+    for (String tab : RESETTABLE_TABS) {
+      target = target.withoutTab(tab);
     }
+    applySnapshot(target);
+    Log.d(TAG, "All beauty params reset to 0");
   }
 
+  @Override
   public void resetTab(String tab) {
-    if (mEngine == null) return;
-    try {
-      switch (tab) {
-        case "beauty":
-          mEngine.setBeautyParam(BasicParam.WHITENING, 0.0f);
-          mEngine.setBeautyParam(BasicParam.SMOOTHING, 0.0f);
-          mEngine.setBeautyParam(BasicParam.ROSINESS, 0.0f);
-          break;
-        case "reshape":
-          mEngine.setBeautyParam(ReshapeParam.FACE_THIN, 0.0f);
-          mEngine.setBeautyParam(ReshapeParam.FACE_V_SHAPE, 0.0f);
-          mEngine.setBeautyParam(ReshapeParam.FACE_NARROW, 0.0f);
-          mEngine.setBeautyParam(ReshapeParam.FACE_SHORT, 0.0f);
-          mEngine.setBeautyParam(ReshapeParam.CHEEKBONE, 0.0f);
-          mEngine.setBeautyParam(ReshapeParam.JAWBONE, 0.0f);
-          mEngine.setBeautyParam(ReshapeParam.CHIN, 0.0f);
-          mEngine.setBeautyParam(ReshapeParam.NOSE_SLIM, 0.0f);
-          mEngine.setBeautyParam(ReshapeParam.EYE_SIZE, 0.0f);
-          mEngine.setBeautyParam(ReshapeParam.EYE_DISTANCE, 0.0f);
-          break;
-        case "makeup":
-          mEngine.setBeautyParam(MakeupParam.LIPSTICK, 0.0f);
-          mEngine.setBeautyParam(MakeupParam.BLUSH, 0.0f);
-          break;
-        case "virtual_bg":
-          VirtualBackgroundOptions options = new VirtualBackgroundOptions();
-          options.mode = BackgroundMode.NONE;
-          mEngine.setVirtualBackground(options);
-          break;
-        case "filter":
-          mEngine.setFilter("");
-          mEngine.setFilterIntensity(0.0f);
-          break;
-        case "sticker":
-        case "body":
-        case "quality":
-        default:
-          break;
+    for (String resettable : RESETTABLE_TABS) {
+      if (resettable.equals(tab)) {
+        applySnapshot(mSnapshot.withoutTab(tab));
+        return;
       }
-    } catch (Exception e) {
-      Log.e(TAG, "resetBeautyTab error", e);
     }
   }
 }
@@ -0,0 +1,177 @@
+package net.pixpark.fbexample.beautypanel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable copy of the beauty parameters applied to the engine. Slider tabs keep one value per
+ * function; filter, sticker and virtual_bg keep their single active selection. Parameters at their
+ * reset value are dropped, so two snapshots are equal exactly when the engine state is the same.
+ */
+public final class BeautyParamSnapshot {
+  public static final BeautyParamSnapshot EMPTY = new BeautyParamSnapshot(new TreeMap<>());
+
+  /** One applied parameter, replayable through {@link BeautyParamApplier#apply}. */
+  public static final class Param {
+    public final String tab;
+    public final String function;
+    public final float value;
+
+    Param(String tab, String function, float value) {
+      this.tab = tab;
+      this.function = function;
+      this.value = value;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof Param)) return false;
+      Param other = (Param) o;
+      return tab.equals(other.tab) && function.equals(other.function)
+          && Float.compare(value, other.value) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+      return (tab.hashCode() * 31 + function.hashCode()) * 31 + Float.floatToIntBits(value);
+    }
+
+    @Override
+    public String toString() {
+      return tab + ":" + function + "=" + value;
+    }
+  }
+
+  // Keyed by "tab:function" for slider tabs and by "tab" for single-selection tabs
+  private final TreeMap<String, Param> mParams;
+  private final int mHashCode;
+
+  private BeautyParamSnapshot(TreeMap<String, Param> params) {
+    mParams = params;
+    mHashCode = params.hashCode();
+  }
+
+  /** Whether only one function of the tab can be active at a time. */
+  public static boolean isSingleSelectionTab(String tab) {
+    return "filter".equals(tab) || "sticker".equals(tab) || "virtual_bg".equals(tab);
+  }
+
+  /** Returns the state after {@code BeautyParamApplier.apply(tab, function, value)}. */
+  public BeautyParamSnapshot with(String tab, String function, float value) {
+    if (tab == null || function == null) {
+      return this;
+    }
+    TreeMap<String, Param> params = new TreeMap<>(mParams);
+    if (isSingleSelectionTab(tab)) {
+      // Mirrors the applier: virtual_bg ignores the value, filter and sticker turn off at 0
+      boolean off = "none".equals(function) || (!"virtual_bg".equals(tab) && value == 0.0f);
+      if (off) {
+        params.remove(tab);
+      } else {
+        params.put(tab, new Param(tab, function, value));
+      }
+    } else {
+      String key = tab + ":" + function;
+      if (value == 0.0f) {
+        params.remove(key);
+      } else {
+        params.put(key, new Param(tab, function, value));
+      }
+    }
+    return params.equals(mParams) ? this : new BeautyParamSnapshot(params);
+  }
+
+  /** Returns the state with every parameter of {@code tab} reset. */
+  public BeautyParamSnapshot withoutTab(String tab) {
+    TreeMap<String, Param> params = new TreeMap<>(mParams);
+    params.remove(tab);
+    params.subMap(tab + ":", tab + ";").clear();
+    return params.size() == mParams.size() ? this : new BeautyParamSnapshot(params);
+  }
+
+  /** Whether this state has {@code param} set to exactly that value. */
+  public boolean contains(Param param) {
+    String key = isSingleSelectionTab(param.tab) ? param.tab : param.tab + ":" + param.function;
+    return param.equals(mParams.get(key));
+  }
+
+  /**
+   * The updates that turn this state into {@code target}: first turning off what the target does
+   * not have, then setting what changed. Replaying them through the applier reaches the target.
+   */
+  public List<Param> diffTo(BeautyParamSnapshot target) {
+    List<Param> changes = new ArrayList<>();
+    if (equals(target)) {
+      return changes;
+    }
+    for (Param param : mParams.values()) {
+      if (isSingleSelectionTab(param.tab)) {
+        if (target.getSelection(param.tab) == null) {
+          changes.add(new Param(param.tab, "none", 0.0f));
+        }
+      } else if (target.getValue(param.tab, param.function) == 0.0f) {
+        changes.add(new Param(param.tab, param.function, 0.0f));
+      }
+    }
+    for (Param param : target.mParams.values()) {
+      if (!contains(param)) {
+        changes.add(param);
+      }
+    }
+    return changes;
+  }
+
+  /** Parameters that differ from their reset value, in a stable order. */
+  public List<Param> getParams() {
+    return Collections.unmodifiableList(new ArrayList<>(mParams.values()));
+  }
+
+  /** Value of a slider function, or of the selection on a single-selection tab; 0 if unset. */
+  public float getValue(String tab, String function) {
+    Param param = mParams.get(isSingleSelectionTab(tab) ? tab : tab + ":" + function);
+    return param != null && param.function.equals(function) ? param.value : 0.0f;
+  }
+
+  /** Active function of a single-selection tab, or null when nothing is selected. */
+  public String getSelection(String tab) {
+    Param param = mParams.get(tab);
+    return param != null ? param.function : null;
+  }
+
+  public boolean isEmpty() {
+    return mParams.isEmpty();
+  }
+
+  public int size() {
+    return mParams.size();
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (!(o instanceof BeautyParamSnapshot)) return false;
+    BeautyParamSnapshot other = (BeautyParamSnapshot) o;
+    return mHashCode == other.mHashCode && mParams.equals(other.mParams);
+  }
+
+  @Override
+  public int hashCode() {
+    return mHashCode;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("BeautyParamSnapshot{");
+    boolean first = true;
+    for (Map.Entry<String, Param> entry : mParams.entrySet()) {
+      if (!first) sb.append(", ");
+      sb.append(entry.getValue());
+      first = false;
+    }
+    return sb.append('}').toString();
+  }
+}
@@ -0,0 +1,106 @@
+package net.pixpark.fbexample.beautypanel;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A named look: every beauty, reshape and makeup value plus the filter, sticker and background
+ * selection, held as a ready-to-apply {@link BeautyParamSnapshot}.
+ *
+ * <p>Binary form: version byte, param count, then (tab, function, value) per non-default param.
+ * Unset params are not written, so a typical preset, like the built-in ones, is well under 200
+ * bytes; one with every param set is about 400.
+ */
+public final class BeautyPreset {
+  private static final int VERSION = 1;
+  // Upper bound on params in one preset, so a corrupt count cannot make us allocate forever
+  private static final int MAX_PARAMS = 256;
+
+  public final String name;
+  public final BeautyParamSnapshot snapshot;
+
+  public BeautyPreset(String name, BeautyParamSnapshot snapshot) {
+    this.name = name;
+    this.snapshot = snapshot;
+  }
+
+  /**
+   * Captures the current state as a preset. A gallery background is left out: the picked image
+   * is not part of the preset and could not be restored from it.
+   */
+  public static BeautyPreset capture(String name, BeautyParamSnapshot current) {
+    String background = current.getSelection("virtual_bg");
+    if (background != null && background.startsWith("image")) {
+      current = current.withoutTab("virtual_bg");
+    }
+    return new BeautyPreset(name, current);
+  }
+
+  public byte[] toBytes() {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + snapshot.size() * 24);
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeByte(VERSION);
+      out.writeUTF(name);
+      out.writeShort(snapshot.size());
+      for (BeautyParamSnapshot.Param param : snapshot.getParams()) {
+        out.writeUTF(param.tab);
+        out.writeUTF(param.function);
+        out.writeFloat(param.value);
+      }
+    } catch (IOException e) {
+      // Writing to memory does not fail
+      throw new IllegalStateException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  /** @throws IOException if the data is truncated, corrupt or from an unknown version */
+  public static BeautyPreset fromBytes(byte[] data) throws IOException {
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+      int version = in.readUnsignedByte();
+      if (version != VERSION) {
+        throw new IOException("Unsupported preset version: " + version);
+      }
+      String name = in.readUTF();
+      int count = in.readUnsignedShort();
+      if (count > MAX_PARAMS) {
+        throw new IOException("Too many preset params: " + count);
+      }
+      BeautyParamSnapshot snapshot = BeautyParamSnapshot.EMPTY;
+      for (int i = 0; i < count; i++) {
+        String tab = in.readUTF();
+        String function = in.readUTF();
+        float value = in.readFloat();
+        if (Float.isNaN(value) || Float.isInfinite(value)) {
+          throw new IOException("Invalid preset value: " + tab + ":" + function + "=" + value);
+        }
+        snapshot = snapshot.with(tab, function, value);
+      }
+      if (in.read() != -1) {
+        throw new IOException("Trailing data after preset");
+      }
+      return new BeautyPreset(name, snapshot);
+    }
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (!(o instanceof BeautyPreset)) return false;
+    BeautyPreset other = (BeautyPreset) o;
+    return name.equals(other.name) && snapshot.equals(other.snapshot);
+  }
+
+  @Override
+  public int hashCode() {
+    return name.hashCode() * 31 + snapshot.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return "BeautyPreset{" + name + ", " + snapshot + "}";
+  }
+}
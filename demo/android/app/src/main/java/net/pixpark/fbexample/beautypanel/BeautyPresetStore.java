@@ -0,0 +1,161 @@
+package net.pixpark.fbexample.beautypanel;
+
+import android.content.Context;
+import android.util.Log;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Named presets: a few built-in looks plus the ones saved by the user under files/presets.
+ * Everything is decoded once when the store is created, so switching presets only hands an
+ * already-built snapshot to {@link ParamDispatcher#postSnapshot}.
+ */
+public class BeautyPresetStore {
+  private static final String TAG = "BeautyPresetStore";
+  private static final String DIR = "presets";
+  private static final String EXTENSION = ".preset";
+  // Longest file name most file systems accept
+  private static final int MAX_FILE_NAME = 255;
+
+  private final File mDir;
+  private final LinkedHashMap<String, BeautyPreset> mPresets = new LinkedHashMap<>();
+
+  public BeautyPresetStore(Context context) {
+    mDir = new File(context.getFilesDir(), DIR);
+    addBuiltIns();
+    loadSaved();
+  }
+
+  private void addBuiltIns() {
+    put(new BeautyPreset("natural", BeautyParamSnapshot.EMPTY
+        .with("beauty", "white", 0.3f)
+        .with("beauty", "smooth", 0.5f)
+        .with("beauty", "rosiness", 0.2f)
+        .with("filter", "initial_heart", 0.6f)));
+    put(new BeautyPreset("glam", BeautyParamSnapshot.EMPTY
+        .with("beauty", "white", 0.5f)
+        .with("beauty", "smooth", 0.7f)
+        .with("reshape", "thin_face", 0.3f)
+        .with("reshape", "big_eye", 0.3f)
+        .with("makeup", "lipstick", 0.5f)
+        .with("makeup", "blush", 0.3f)
+        .with("filter", "vivid", 0.7f)));
+  }
+
+  private void loadSaved() {
+    File[] files = mDir.listFiles((dir, name) -> name.endsWith(EXTENSION));
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      try {
+        put(BeautyPreset.fromBytes(readFile(file)));
+      } catch (IOException e) {
+        Log.e(TAG, "Skipping unreadable preset: " + file.getName(), e);
+      }
+    }
+    Log.d(TAG, "Loaded " + files.length + " saved presets");
+  }
+
+  private void put(BeautyPreset preset) {
+    mPresets.put(preset.name, preset);
+  }
+
+  /** Returns the preset, or null if there is none with that name. */
+  public synchronized BeautyPreset get(String name) {
+    return mPresets.get(name);
+  }
+
+  public synchronized List<String> getNames() {
+    return new ArrayList<>(mPresets.keySet());
+  }
+
+  /** Saves the preset, replacing one with the same name. Returns false if it could not be written. */
+  public synchronized boolean save(BeautyPreset preset) {
+    if (!mDir.isDirectory() && !mDir.mkdirs()) {
+      Log.e(TAG, "Cannot create preset directory: " + mDir);
+      return false;
+    }
+    File file = fileFor(preset.name);
+    if (file == null) {
+      Log.e(TAG, "Preset name too long: " + preset.name);
+      return false;
+    }
+    // Write aside and rename, so a crash mid-write never leaves a truncated preset behind
+    File temp = new File(mDir, file.getName() + ".tmp");
+    try (FileOutputStream out = new FileOutputStream(temp)) {
+      out.write(preset.toBytes());
+      out.getFD().sync();
+    } catch (IOException e) {
+      Log.e(TAG, "Failed to save preset: " + preset.name, e);
+      temp.delete();
+      return false;
+    }
+    if (!temp.renameTo(file)) {
+      Log.e(TAG, "Failed to save preset: " + preset.name);
+      temp.delete();
+      return false;
+    }
+    put(preset);
+    return true;
+  }
+
+  public synchronized boolean delete(String name) {
+    File file = fileFor(name);
+    if (file != null && file.exists() && !file.delete()) {
+      return false;
+    }
+    return mPresets.remove(name) != null;
+  }
+
+  /** Returns the file a preset is saved in, or null if the name is too long for one. */
+  private File fileFor(String name) {
+    String fileName = encodeFileName(name) + EXTENSION;
+    return fileName.length() <= MAX_FILE_NAME ? new File(mDir, fileName) : null;
+  }
+
+  /**
+   * Percent-encodes every UTF-8 byte of {@code name} except letters, digits, '_' and '-'. Keeps
+   * user-chosen names from escaping the directory, and distinct names such as "a/b" and "a_b"
+   * from sharing a file.
+   */
+  static String encodeFileName(String name) {
+    StringBuilder encoded = new StringBuilder(name.length());
+    for (byte b : name.getBytes(StandardCharsets.UTF_8)) {
+      int c = b & 0xFF;
+      if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '_'
+          || c == '-') {
+        encoded.append((char) c);
+      } else {
+        encoded.append('%').append(Character.toUpperCase(Character.forDigit(c >> 4, 16)))
+            .append(Character.toUpperCase(Character.forDigit(c & 0xF, 16)));
+      }
+    }
+    return encoded.toString();
+  }
+
+  private static byte[] readFile(File file) throws IOException {
+    long length = file.length();
+    if (length > 64 * 1024) {
+      throw new IOException("Preset too large: " + length);
+    }
+    byte[] data = new byte[(int) length];
+    try (FileInputStream in = new FileInputStream(file)) {
+      int offset = 0;
+      while (offset < data.length) {
+        int read = in.read(data, offset, data.length - offset);
+        if (read < 0) {
+          throw new IOException("Unexpected end of " + file.getName());
+        }
+        offset += read;
+      }
+    }
+    return data;
+  }
+}
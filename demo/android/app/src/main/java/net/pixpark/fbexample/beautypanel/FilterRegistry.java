@@ -0,0 +1,129 @@
+package net.pixpark.fbexample.beautypanel;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Registers filters with the engine the first time they are used and keeps them registered, so
+ * the engine's decoded LUT is reused when the user flicks back to a filter. Filters are
+ * unregistered least recently used first once their estimated resident size exceeds the budget.
+ * Loading never happens on the calling thread. Thread-safe.
+ */
+public final class FilterRegistry {
+  /** Does the actual engine calls. */
+  public interface Backend {
+    /** Reads and registers the filter package off the calling thread, then reports the outcome. */
+    void load(String id, Callback done);
+
+    void unregister(String id);
+  }
+
+  public interface Callback {
+    /** @param bytes estimated bytes the registered filter keeps resident, negative on failure */
+    void onLoaded(long bytes);
+  }
+
+  // The filter being switched away from stays registered until the engine has moved on
+  private static final int MIN_REGISTERED = 2;
+
+  private final Backend mBackend;
+  private final long mMaxBytes;
+  // Registered ids and their sizes, least recently used first
+  private final LinkedHashMap<String, Long> mRegistered = new LinkedHashMap<>(8, 0.75f, true);
+  private final Set<String> mLoading = new HashSet<>();
+  // Loaded but not acquired since; the acquire that picks one up completes a miss, not a hit
+  private final Set<String> mUnclaimed = new HashSet<>();
+  private long mBytes = 0;
+  private long mHitCount = 0;
+  private long mRegisterCount = 0;
+  private long mFailureCount = 0;
+  private long mEvictionCount = 0;
+
+  /** @param maxBytes budget for registered filters; the last two used are kept regardless */
+  public FilterRegistry(Backend backend, long maxBytes) {
+    mBackend = backend;
+    mMaxBytes = maxBytes;
+  }
+
+  /**
+   * Marks {@code id} most recently used if it is registered, else starts loading it. Filters
+   * over the budget are unregistered once the load completes, never the one just switched from.
+   * @return whether the filter is registered and can be set now
+   */
+  public synchronized boolean acquire(String id) {
+    if (mRegistered.get(id) != null) {
+      if (!mUnclaimed.remove(id)) {
+        mHitCount++;
+      }
+      return true;
+    }
+    if (mLoading.add(id)) {
+      mBackend.load(id, bytes -> onLoaded(id, bytes));
+    }
+    return false;
+  }
+
+  private synchronized void onLoaded(String id, long bytes) {
+    mLoading.remove(id);
+    if (bytes < 0) {
+      mFailureCount++;
+      return;
+    }
+    mRegisterCount++;
+    mRegistered.put(id, bytes);
+    mUnclaimed.add(id);
+    mBytes += bytes;
+    Iterator<Map.Entry<String, Long>> it = mRegistered.entrySet().iterator();
+    while (mBytes > mMaxBytes && mRegistered.size() > MIN_REGISTERED) {
+      Map.Entry<String, Long> eldest = it.next();
+      it.remove();
+      mUnclaimed.remove(eldest.getKey());
+      mBytes -= eldest.getValue();
+      mBackend.unregister(eldest.getKey());
+      mEvictionCount++;
+    }
+  }
+
+  public synchronized boolean isRegistered(String id) {
+    return mRegistered.containsKey(id);
+  }
+
+  public synchronized boolean isLoading(String id) {
+    return mLoading.contains(id);
+  }
+
+  /** Registered ids, least recently used first. */
+  public synchronized Set<String> getRegistered() {
+    return new LinkedHashSet<>(mRegistered.keySet());
+  }
+
+  /** Estimated bytes kept resident by the registered filters. */
+  public synchronized long getBytes() {
+    return mBytes;
+  }
+
+  /** Share of filter selections that found the filter already registered. */
+  public synchronized float getHitRate() {
+    long total = mHitCount + mRegisterCount + mFailureCount;
+    return total == 0 ? 0.0f : (float) mHitCount / total;
+  }
+
+  public synchronized long getRegisterCount() {
+    return mRegisterCount;
+  }
+
+  public synchronized long getEvictionCount() {
+    return mEvictionCount;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "FilterRegistry{registered=" + mRegistered.keySet() + ", bytes=" + mBytes + "/" + mMaxBytes
+        + ", hits=" + mHitCount + ", registrations=" + mRegisterCount + ", failures=" + mFailureCount
+        + ", evictions=" + mEvictionCount + ", hitRate=" + Math.round(getHitRate() * 100) + "%}";
+  }
+}
@@ -0,0 +1,186 @@
+package net.pixpark.fbexample.beautypanel;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Coalesces panel parameter changes and hands them to the engine once per frame.
+ *
+ * <p>The UI thread posts every slider step; only the latest value per (tab, function) is kept.
+ * The thread that runs the beauty pass calls {@link #flush()} right before processing a frame,
+ * so a drag turns into at most one engine update per rendered frame. Pending operations are
+ * replayed in the order of their latest update, which leaves the engine in the same state as
+ * applying every step would.
+ */
+public final class ParamDispatcher {
+  /** Receives the coalesced operations; implemented by {@link BeautyParamApplier}. */
+  public interface ParamSink {
+    void apply(String tab, String function, float value);
+
+    void resetTab(String tab);
+
+    void resetAll();
+
+    void applySnapshot(BeautyParamSnapshot snapshot);
+  }
+
+  /** Called on the posting thread when an update lands while nothing was pending. */
+  public interface Listener {
+    void onParamsPending();
+  }
+
+  private static final int OP_APPLY = 0;
+  private static final int OP_RESET_TAB = 1;
+  private static final int OP_RESET_ALL = 2;
+  private static final int OP_SNAPSHOT = 3;
+  private static final int OP_TASK = 4;
+
+  private static final class Op {
+    final int type;
+    final String tab;
+    final String function;
+    final float value;
+    final BeautyParamSnapshot snapshot;
+    final Runnable task;
+
+    Op(int type, String tab, String function, float value, BeautyParamSnapshot snapshot,
+        Runnable task) {
+      this.type = type;
+      this.tab = tab;
+      this.function = function;
+      this.value = value;
+      this.snapshot = snapshot;
+      this.task = task;
+    }
+  }
+
+  private final ParamSink mSink;
+  private final LinkedHashMap<String, Op> mPending = new LinkedHashMap<>();
+  private volatile Listener mListener;
+  private long mPostedCount = 0;
+  private long mAppliedCount = 0;
+  private long mFlushCount = 0;
+
+  public ParamDispatcher(ParamSink sink) {
+    mSink = sink;
+  }
+
+  public void setListener(Listener listener) {
+    mListener = listener;
+  }
+
+  public void post(String tab, String function, float value) {
+    enqueue("set:" + tab + ":" + function, new Op(OP_APPLY, tab, function, value, null, null));
+  }
+
+  public void postResetTab(String tab) {
+    enqueue("reset:" + tab, new Op(OP_RESET_TAB, tab, null, 0.0f, null, null));
+  }
+
+  public void postResetAll() {
+    enqueue("reset_all", new Op(OP_RESET_ALL, null, null, 0.0f, null, null));
+  }
+
+  /**
+   * Replaces the whole parameter state in one step, e.g. for a preset. Parameter updates posted
+   * before are superseded and dropped.
+   */
+  public void postSnapshot(BeautyParamSnapshot snapshot) {
+    enqueue("snapshot", new Op(OP_SNAPSHOT, null, null, 0.0f, snapshot, null), true);
+  }
+
+  /**
+   * Runs {@code task} in the next flush, on the processing thread and in order with parameter
+   * updates. A task posted again under the same key before the flush runs once.
+   */
+  public void postTask(String key, Runnable task) {
+    enqueue("task:" + key, new Op(OP_TASK, null, null, 0.0f, null, task));
+  }
+
+  private void enqueue(String key, Op op) {
+    enqueue(key, op, false);
+  }
+
+  private void enqueue(String key, Op op, boolean supersedePending) {
+    boolean wasEmpty;
+    synchronized (this) {
+      wasEmpty = mPending.isEmpty();
+      if (supersedePending) {
+        // Tasks are not parameter updates, so a new state does not make them obsolete
+        mPending.values().removeIf(pending -> pending.type != OP_TASK);
+      }
+      // Re-insert so the map stays ordered by each key's latest update
+      mPending.remove(key);
+      mPending.put(key, op);
+      mPostedCount++;
+    }
+    Listener listener = mListener;
+    if (wasEmpty && listener != null) {
+      listener.onParamsPending();
+    }
+  }
+
+  /**
+   * Applies everything posted since the last flush. Call once per frame, on the thread that
+   * processes frames, before processing.
+   * @return number of operations applied
+   */
+  public int flush() {
+    List<Op> batch;
+    synchronized (this) {
+      if (mPending.isEmpty()) {
+        return 0;
+      }
+      batch = new ArrayList<>(mPending.values());
+      mPending.clear();
+      mFlushCount++;
+      mAppliedCount += batch.size();
+    }
+    for (Op op : batch) {
+      switch (op.type) {
+        case OP_APPLY:
+          mSink.apply(op.tab, op.function, op.value);
+          break;
+        case OP_RESET_TAB:
+          mSink.resetTab(op.tab);
+          break;
+        case OP_RESET_ALL:
+          mSink.resetAll();
+          break;
+        case OP_SNAPSHOT:
+          mSink.applySnapshot(op.snapshot);
+          break;
+        case OP_TASK:
+          op.task.run();
+          break;
+      }
+    }
+    return batch.size();
+  }
+
+  public synchronized boolean hasPending() {
+    return !mPending.isEmpty();
+  }
+
+  /** Operations posted by the UI. */
+  public synchronized long getPostedCount() {
+    return mPostedCount;
+  }
+
+  /** Operations that reached the sink after coalescing. */
+  public synchronized long getAppliedCount() {
+    return mAppliedCount;
+  }
+
+  /** Flushes that applied at least one operation. */
+  public synchronized long getFlushCount() {
+    return mFlushCount;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "ParamDispatcher{posted=" + mPostedCount + ", applied=" + mAppliedCount + ", flushes="
+        + mFlushCount + ", pending=" + mPending.size() + "}";
+  }
+}
@@ -0,0 +1,158 @@
+package net.pixpark.fbexample.beautypanel;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stickers found under assets/stickers, registered with the engine on first use. Selecting a
+ * sticker also starts loading its neighbours in the panel, so the next tap usually finds its
+ * sticker ready. Loading never happens on the calling thread. Thread-safe.
+ */
+public final class StickerCatalog {
+  /** How many stickers on each side of the selected one are loaded ahead. */
+  public static final int PREFETCH_DISTANCE = 1;
+
+  /** Lists asset directories, e.g. {@code AssetManager::list}. */
+  public interface AssetLister {
+    String[] list(String path) throws IOException;
+  }
+
+  /** Reads and registers a sticker package off the calling thread, then reports the outcome. */
+  public interface Loader {
+    void load(String id, String path, Callback done);
+  }
+
+  public interface Callback {
+    void onLoaded(boolean registered);
+  }
+
+  /** Called on the thread that reports the load to its {@link Callback}, once it succeeded. */
+  public interface Listener {
+    void onStickerReady(String id);
+  }
+
+  private enum State { LOADING, READY, FAILED }
+
+  private final Map<String, String> mPaths;
+  private final List<String> mIds;
+  private final Loader mLoader;
+  private final Map<String, State> mStates = new HashMap<>();
+  private volatile Listener mListener;
+  private long mLoadCount = 0;
+  private long mPrefetchCount = 0;
+  private long mFailureCount = 0;
+
+  /** @param paths sticker id to asset path, in panel order */
+  public StickerCatalog(Map<String, String> paths, Loader loader) {
+    mPaths = Collections.unmodifiableMap(new LinkedHashMap<>(paths));
+    mIds = Collections.unmodifiableList(new ArrayList<>(paths.keySet()));
+    mLoader = loader;
+  }
+
+  /**
+   * Finds sticker packages laid out as {@code <root>/<category>/<id>/<id>.fbd}.
+   * @return sticker id to asset path, sorted by category then id
+   */
+  public static Map<String, String> scan(AssetLister assets, String root) throws IOException {
+    Map<String, String> paths = new LinkedHashMap<>();
+    String[] categories = assets.list(root);
+    if (categories == null) {
+      return paths;
+    }
+    Arrays.sort(categories);
+    for (String category : categories) {
+      String[] ids = assets.list(root + "/" + category);
+      if (ids == null) {
+        continue;
+      }
+      Arrays.sort(ids);
+      for (String id : ids) {
+        String dir = root + "/" + category + "/" + id;
+        String[] files = assets.list(dir);
+        if (files != null && Arrays.asList(files).contains(id + ".fbd")) {
+          paths.put(id, dir + "/" + id + ".fbd");
+        }
+      }
+    }
+    return paths;
+  }
+
+  public void setListener(Listener listener) {
+    mListener = listener;
+  }
+
+  public List<String> getIds() {
+    return mIds;
+  }
+
+  /**
+   * Called when {@code id} is selected: returns whether it is registered and can be set on the
+   * engine now. If not, it starts loading and the listener fires once it is ready. Either way the
+   * neighbouring stickers are loaded ahead.
+   */
+  public boolean select(String id) {
+    boolean ready = isReady(id);
+    if (!ready) {
+      load(id, false);
+    }
+    int index = mIds.indexOf(id);
+    if (index >= 0) {
+      for (int distance = 1; distance <= PREFETCH_DISTANCE; distance++) {
+        if (index - distance >= 0) {
+          load(mIds.get(index - distance), true);
+        }
+        if (index + distance < mIds.size()) {
+          load(mIds.get(index + distance), true);
+        }
+      }
+    }
+    return ready;
+  }
+
+  public synchronized boolean isReady(String id) {
+    return mStates.get(id) == State.READY;
+  }
+
+  private void load(String id, boolean prefetch) {
+    String path = mPaths.get(id);
+    if (path == null) {
+      return;
+    }
+    synchronized (this) {
+      State state = mStates.get(id);
+      // A failed sticker is retried only when it is selected, not on every prefetch
+      if (state == State.LOADING || state == State.READY || (prefetch && state == State.FAILED)) {
+        return;
+      }
+      mStates.put(id, State.LOADING);
+      mLoadCount++;
+      if (prefetch) {
+        mPrefetchCount++;
+      }
+    }
+    mLoader.load(id, path, registered -> {
+      synchronized (this) {
+        mStates.put(id, registered ? State.READY : State.FAILED);
+        if (!registered) {
+          mFailureCount++;
+        }
+      }
+      Listener listener = mListener;
+      if (registered && listener != null) {
+        listener.onStickerReady(id);
+      }
+    });
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "StickerCatalog{stickers=" + mIds.size() + ", loads=" + mLoadCount + ", prefetches="
+        + mPrefetchCount + ", failures=" + mFailureCount + "}";
+  }
+}
@@ -0,0 +1,84 @@
+package net.pixpark.fbexample;
+
+import static org.junit.Assert.*;
+
+import net.pixpark.fbexample.beautypanel.ParamDispatcher;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+public class BeautyResourceLoaderTest {
+  private static final byte[] DATA = {1, 2, 3};
+
+  private final ParamDispatcher mDispatcher = new ParamDispatcher(null);
+  private final BeautyResourceLoader mLoader =
+      new BeautyResourceLoader(null, null, mDispatcher, 1);
+
+  @After
+  public void tearDown() {
+    mLoader.cancel();
+  }
+
+  @Test
+  public void register_readsThenRegistersAtFlush() throws Exception {
+    CompletableFuture<BeautyResourceLoader.ResourceTiming> done =
+        mLoader.register("sticker", "cute", () -> DATA, (id, data) -> 0);
+
+    flushWhenPosted();
+
+    BeautyResourceLoader.ResourceTiming timing = done.get(5, TimeUnit.SECONDS);
+    assertTrue(timing.isRegistered());
+    assertEquals(DATA.length, timing.bytes);
+  }
+
+  @Test
+  public void register_unreadableAsset_completesWithFailedTiming() throws Exception {
+    CompletableFuture<BeautyResourceLoader.ResourceTiming> done = mLoader.register("sticker",
+        "cute", () -> { throw new IOException("missing"); }, (id, data) -> 0);
+
+    assertFalse(done.get(5, TimeUnit.SECONDS).isRegistered());
+    assertFalse(mDispatcher.hasPending());
+  }
+
+  @Test
+  public void register_throwingReader_completesExceptionally() throws Exception {
+    CompletableFuture<BeautyResourceLoader.ResourceTiming> done = mLoader.register("sticker",
+        "cute", () -> { throw new IllegalStateException("broken"); }, (id, data) -> 0);
+
+    assertFailedWith(IllegalStateException.class, done);
+    assertFalse(mDispatcher.hasPending());
+  }
+
+  @Test
+  public void register_throwingRegistrar_completesExceptionallyAndFlushGoesOn() throws Exception {
+    CompletableFuture<BeautyResourceLoader.ResourceTiming> done = mLoader.register("filter",
+        "snow", () -> DATA, (id, data) -> { throw new IllegalArgumentException("bad package"); });
+
+    flushWhenPosted();
+
+    assertFailedWith(IllegalArgumentException.class, done);
+  }
+
+  /** Waits for the read to finish and runs the registration like the processing thread would. */
+  private void flushWhenPosted() throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (!mDispatcher.hasPending()) {
+      assertTrue("nothing posted", System.nanoTime() < deadline);
+      Thread.sleep(1);
+    }
+    assertEquals(1, mDispatcher.flush());
+  }
+
+  private static void assertFailedWith(Class<? extends Throwable> type,
+      CompletableFuture<BeautyResourceLoader.ResourceTiming> done) throws Exception {
+    try {
+      done.get(5, TimeUnit.SECONDS);
+      fail("expected " + type.getSimpleName());
+    } catch (ExecutionException e) {
+      assertTrue(String.valueOf(e.getCause()), type.isInstance(e.getCause()));
+    }
+  }
+}
@@ -0,0 +1,141 @@
+package net.pixpark.fbexample;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class FramePoolTest {
+  private static final int FORMAT = 35;
+
+  private static final class Buffer {
+    final int width;
+    final int height;
+    boolean freed;
+
+    Buffer(int width, int height) {
+      this.width = width;
+      this.height = height;
+    }
+  }
+
+  private static final class CountingAllocator implements FramePool.Allocator<Buffer> {
+    int allocated;
+    final List<Buffer> freed = new ArrayList<>();
+
+    @Override
+    public Buffer allocate(int width, int height, int format) {
+      allocated++;
+      return new Buffer(width, height);
+    }
+
+    @Override
+    public void free(Buffer item) {
+      item.freed = true;
+      freed.add(item);
+    }
+
+    @Override
+    public long sizeOf(Buffer item) {
+      return (long) item.width * item.height;
+    }
+  }
+
+  @Test
+  public void acquire_afterRelease_reusesItem() {
+    CountingAllocator allocator = new CountingAllocator();
+    FramePool<Buffer> pool = new FramePool<>(allocator, 1_000_000);
+
+    Buffer first = pool.acquire(100, 100, FORMAT);
+    pool.release(100, 100, FORMAT, first);
+    Buffer second = pool.acquire(100, 100, FORMAT);
+
+    assertSame(first, second);
+    assertEquals(1, allocator.allocated);
+    assertEquals(1, pool.getHitCount());
+    assertEquals(1, pool.getMissCount());
+    assertEquals(0, pool.getRetainedBytes());
+  }
+
+  @Test
+  public void acquire_differentKey_misses() {
+    CountingAllocator allocator = new CountingAllocator();
+    FramePool<Buffer> pool = new FramePool<>(allocator, 1_000_000);
+
+    pool.release(100, 100, FORMAT, pool.acquire(100, 100, FORMAT));
+    Buffer other = pool.acquire(100, 50, FORMAT);
+    Buffer otherFormat = pool.acquire(100, 100, FORMAT + 1);
+
+    assertEquals(50, other.height);
+    assertNotNull(otherFormat);
+    assertEquals(3, allocator.allocated);
+    assertEquals(0, pool.getHitCount());
+    assertEquals(1, pool.getRetainedCount());
+  }
+
+  @Test
+  public void steadyState_allocatesOnlyForFramesInFlight() {
+    CountingAllocator allocator = new CountingAllocator();
+    FramePool<Buffer> pool = new FramePool<>(allocator, 1_000_000);
+
+    for (int i = 0; i < 1000; i++) {
+      Buffer a = pool.acquire(64, 64, FORMAT);
+      Buffer b = pool.acquire(64, 64, FORMAT);
+      pool.release(64, 64, FORMAT, a);
+      pool.release(64, 64, FORMAT, b);
+    }
+
+    assertEquals(2, allocator.allocated);
+    assertEquals(1998, pool.getHitCount());
+    assertEquals(0, pool.getEvictionCount());
+  }
+
+  @Test
+  public void release_overBudget_evictsOldest() {
+    CountingAllocator allocator = new CountingAllocator();
+    FramePool<Buffer> pool = new FramePool<>(allocator, 250);
+
+    Buffer a = pool.acquire(10, 10, FORMAT);
+    Buffer b = pool.acquire(10, 10, FORMAT);
+    Buffer c = pool.acquire(10, 10, FORMAT);
+    pool.release(10, 10, FORMAT, a);
+    pool.release(10, 10, FORMAT, b);
+    pool.release(10, 10, FORMAT, c);
+
+    assertTrue(a.freed);
+    assertFalse(b.freed);
+    assertFalse(c.freed);
+    assertEquals(1, pool.getEvictionCount());
+    assertEquals(200, pool.getRetainedBytes());
+    assertSame(c, pool.acquire(10, 10, FORMAT));
+  }
+
+  @Test
+  public void release_itemLargerThanBudget_isFreed() {
+    CountingAllocator allocator = new CountingAllocator();
+    FramePool<Buffer> pool = new FramePool<>(allocator, 10);
+
+    Buffer big = pool.acquire(10, 10, FORMAT);
+    pool.release(10, 10, FORMAT, big);
+
+    assertTrue(big.freed);
+    assertEquals(0, pool.getRetainedCount());
+    assertEquals(0, pool.getRetainedBytes());
+  }
+
+  @Test
+  public void clear_freesRetainedItems() {
+    CountingAllocator allocator = new CountingAllocator();
+    FramePool<Buffer> pool = new FramePool<>(allocator, 1_000_000);
+    pool.release(10, 10, FORMAT, pool.acquire(10, 10, FORMAT));
+    pool.release(20, 20, FORMAT, pool.acquire(20, 20, FORMAT));
+
+    pool.clear();
+
+    assertEquals(2, allocator.freed.size());
+    assertEquals(0, pool.getRetainedCount());
+    assertEquals(0, pool.getRetainedBytes());
+    assertEquals(0, pool.getEvictionCount());
+  }
+}
@@ -0,0 +1,117 @@
+package net.pixpark.fbexample;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class ImageResultCacheTest {
+  private static final class Result {
+    final long bytes;
+    boolean released;
+
+    Result(long bytes) {
+      this.bytes = bytes;
+    }
+  }
+
+  private static final class Handler implements ImageResultCache.ValueHandler<Result> {
+    final List<Result> released = new ArrayList<>();
+
+    @Override
+    public long sizeOf(Result value) {
+      return value.bytes;
+    }
+
+    @Override
+    public void release(Result value) {
+      value.released = true;
+      released.add(value);
+    }
+  }
+
+  @Test
+  public void get_sameSourceAndParams_hits() {
+    ImageResultCache<Result> cache = new ImageResultCache<>(new Handler(), 1000);
+    Object source = new Object();
+    Result result = new Result(100);
+
+    assertNull(cache.get(source, "a=1"));
+    assertTrue(cache.put(source, "a=1", result));
+
+    assertSame(result, cache.get(source, new String("a=1")));
+    assertEquals(1, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+  }
+
+  @Test
+  public void get_differentSourceInstance_misses() {
+    ImageResultCache<Result> cache = new ImageResultCache<>(new Handler(), 1000);
+    String source = new String("image");
+    cache.put(source, "p", new Result(10));
+
+    assertNull(cache.get(new String("image"), "p"));
+    assertNull(cache.get(source, "q"));
+  }
+
+  @Test
+  public void put_overBudget_evictsLeastRecentlyUsed() {
+    Handler handler = new Handler();
+    ImageResultCache<Result> cache = new ImageResultCache<>(handler, 250);
+    Object source = new Object();
+    Result a = new Result(100);
+    Result b = new Result(100);
+    Result c = new Result(100);
+    cache.put(source, "a", a);
+    cache.put(source, "b", b);
+    cache.get(source, "a");
+    cache.put(source, "c", c);
+
+    assertTrue(b.released);
+    assertFalse(a.released);
+    assertFalse(c.released);
+    assertEquals(1, cache.getEvictionCount());
+    assertEquals(200, cache.getBytes());
+  }
+
+  @Test
+  public void put_valueLargerThanBudget_isNotStored() {
+    Handler handler = new Handler();
+    ImageResultCache<Result> cache = new ImageResultCache<>(handler, 50);
+    Result big = new Result(100);
+
+    assertFalse(cache.put(new Object(), "p", big));
+    assertFalse(big.released);
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void put_sameKey_releasesPrevious() {
+    Handler handler = new Handler();
+    ImageResultCache<Result> cache = new ImageResultCache<>(handler, 1000);
+    Object source = new Object();
+    Result first = new Result(100);
+    Result second = new Result(200);
+    cache.put(source, "p", first);
+    cache.put(source, "p", second);
+
+    assertTrue(first.released);
+    assertEquals(200, cache.getBytes());
+    assertSame(second, cache.get(source, "p"));
+  }
+
+  @Test
+  public void clear_releasesEverything() {
+    Handler handler = new Handler();
+    ImageResultCache<Result> cache = new ImageResultCache<>(handler, 1000);
+    cache.put(new Object(), "p", new Result(10));
+    cache.put(new Object(), "p", new Result(10));
+
+    cache.clear();
+
+    assertEquals(2, handler.released.size());
+    assertEquals(0, cache.size());
+    assertEquals(0, cache.getBytes());
+  }
+}
@@ -0,0 +1,94 @@
+package net.pixpark.fbexample;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import org.junit.Test;
+
+public class OrientationTransformTest {
+  @Test
+  public void forCamera_frontFacing_rotatesBySensorAndMirrors() {
+    OrientationTransform transform = OrientationTransform.forCamera(270, true, true);
+    assertEquals(270, transform.rotationDegrees);
+    assertTrue(transform.mirror);
+  }
+
+  @Test
+  public void forCamera_backFacing_neverMirrors() {
+    OrientationTransform transform = OrientationTransform.forCamera(90, false, true);
+    assertEquals(90, transform.rotationDegrees);
+    assertFalse(transform.mirror);
+  }
+
+  @Test
+  public void forCamera_frontWithoutMirror() {
+    assertFalse(OrientationTransform.forCamera(270, true, false).mirror);
+  }
+
+  @Test
+  public void rotation_isNormalized() {
+    assertEquals(0, OrientationTransform.of(360, false).rotationDegrees);
+    assertEquals(270, OrientationTransform.of(-90, false).rotationDegrees);
+    assertEquals(90, OrientationTransform.of(85, false).rotationDegrees);
+  }
+
+  @Test
+  public void of_returnsSharedInstances() {
+    assertSame(OrientationTransform.of(90, true), OrientationTransform.forCamera(450, true, true));
+    assertNotSame(OrientationTransform.of(90, true), OrientationTransform.of(90, false));
+  }
+
+  @Test
+  public void rotatedSize_swapsForQuarterTurns() {
+    OrientationTransform quarter = OrientationTransform.of(90, false);
+    assertEquals(720, quarter.rotatedWidth(1280, 720));
+    assertEquals(1280, quarter.rotatedHeight(1280, 720));
+
+    OrientationTransform half = OrientationTransform.of(180, true);
+    assertEquals(1280, half.rotatedWidth(1280, 720));
+    assertEquals(720, half.rotatedHeight(1280, 720));
+  }
+
+  // 3x2 source:
+  // 1 2 3
+  // 4 5 6
+  private static final byte[] PLANE = {1, 2, 3, 4, 5, 6};
+
+  @Test
+  public void copyPlane_rotatesClockwise() {
+    assertArrayEquals(PLANE, copy(0, false));
+    assertArrayEquals(new byte[] {4, 1, 5, 2, 6, 3}, copy(90, false));
+    assertArrayEquals(new byte[] {6, 5, 4, 3, 2, 1}, copy(180, false));
+    assertArrayEquals(new byte[] {3, 6, 2, 5, 1, 4}, copy(270, false));
+  }
+
+  @Test
+  public void copyPlane_mirrorsTheUprightFrame() {
+    assertArrayEquals(new byte[] {3, 2, 1, 6, 5, 4}, copy(0, true));
+    assertArrayEquals(new byte[] {1, 4, 2, 5, 3, 6}, copy(90, true));
+    assertArrayEquals(new byte[] {4, 5, 6, 1, 2, 3}, copy(180, true));
+    assertArrayEquals(new byte[] {6, 3, 5, 2, 4, 1}, copy(270, true));
+  }
+
+  @Test
+  public void copyPlane_skipsRowPaddingAndInterleavedSamples() {
+    // Semi-planar chroma: every other byte, rows padded to 8
+    ByteBuffer src = ByteBuffer.wrap(new byte[] {
+        1, 9, 2, 9, 3, 9, 9, 9,
+        4, 9, 5, 9, 6});
+    ByteBuffer dst = ByteBuffer.allocate(6);
+    OrientationTransform.of(270, true).copyPlane(src, 8, 2, 3, 2, dst, new byte[5]);
+
+    assertArrayEquals(new byte[] {6, 3, 5, 2, 4, 1}, dst.array());
+    assertEquals(0, src.position());
+  }
+
+  private static byte[] copy(int rotation, boolean mirror) {
+    ByteBuffer dst = ByteBuffer.allocateDirect(PLANE.length);
+    OrientationTransform.of(rotation, mirror)
+        .copyPlane(ByteBuffer.wrap(PLANE), 3, 1, 3, 2, dst, new byte[3]);
+    byte[] out = new byte[PLANE.length];
+    dst.get(out);
+    return out;
+  }
+}
@@ -0,0 +1,224 @@
+package net.pixpark.fbexample;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+public class TripleBufferTest {
+  /** Tracks every item so the tests can check nothing is recycled twice or while in use. */
+  private static final class Item {
+    final long seq;
+    final AtomicBoolean recycled = new AtomicBoolean();
+
+    Item(long seq) {
+      this.seq = seq;
+    }
+  }
+
+  private static final class CountingRecycler implements TripleBuffer.Recycler<Item> {
+    final ConcurrentHashMap<Long, Boolean> recycledSeqs = new ConcurrentHashMap<>();
+    final AtomicReference<String> error = new AtomicReference<>();
+
+    @Override
+    public void recycle(Item item) {
+      if (!item.recycled.compareAndSet(false, true)) {
+        error.compareAndSet(null, "item " + item.seq + " recycled twice");
+      }
+      recycledSeqs.put(item.seq, Boolean.TRUE);
+    }
+  }
+
+  @Test
+  public void acquire_beforePublish_returnsNull() {
+    TripleBuffer<Item> buffer = new TripleBuffer<>(null);
+    assertNull(buffer.acquire());
+    buffer.release();
+  }
+
+  @Test
+  public void acquire_returnsNewestAndCountsOverwrites() {
+    CountingRecycler recycler = new CountingRecycler();
+    TripleBuffer<Item> buffer = new TripleBuffer<>(recycler);
+
+    assertFalse(buffer.publish(new Item(1)));
+    assertTrue(buffer.publish(new Item(2)));
+    assertTrue(buffer.publish(new Item(3)));
+
+    Item item = buffer.acquire();
+    buffer.release();
+    assertEquals(3, item.seq);
+    assertEquals(3, buffer.getPublishedCount());
+    assertEquals(1, buffer.getConsumedCount());
+    assertEquals(2, buffer.getOverwrittenCount());
+    assertEquals(2, buffer.getDroppedCount());
+    assertTrue(recycler.recycledSeqs.containsKey(1L));
+    assertTrue(recycler.recycledSeqs.containsKey(2L));
+    assertFalse(item.recycled.get());
+  }
+
+  @Test
+  public void acquire_withoutNewItem_keepsLastFrame() {
+    TripleBuffer<Item> buffer = new TripleBuffer<>(new CountingRecycler());
+    buffer.publish(new Item(7));
+
+    Item first = buffer.acquire();
+    buffer.release();
+    Item again = buffer.acquire();
+    buffer.release();
+
+    assertSame(first, again);
+    assertEquals(1, buffer.getConsumedCount());
+    assertFalse(buffer.hasPending());
+  }
+
+  @Test
+  public void publish_neverRecyclesAcquiredItem() {
+    CountingRecycler recycler = new CountingRecycler();
+    TripleBuffer<Item> buffer = new TripleBuffer<>(recycler);
+    buffer.publish(new Item(1));
+
+    Item held = buffer.acquire();
+    for (int i = 2; i < 10; i++) {
+      buffer.publish(new Item(i));
+    }
+    assertFalse(held.recycled.get());
+    buffer.release();
+
+    assertEquals(9, buffer.acquire().seq);
+    buffer.release();
+    buffer.publish(new Item(10));
+    assertTrue(held.recycled.get());
+    assertNull(recycler.error.get());
+  }
+
+  @Test
+  public void clear_recyclesEverything() {
+    CountingRecycler recycler = new CountingRecycler();
+    TripleBuffer<Item> buffer = new TripleBuffer<>(recycler);
+    buffer.publish(new Item(1));
+    buffer.acquire();
+    buffer.release();
+    buffer.publish(new Item(2));
+
+    buffer.clear();
+
+    assertEquals(2, recycler.recycledSeqs.size());
+    assertEquals(1, buffer.getDroppedCount());
+    assertNull(buffer.acquire());
+    buffer.release();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void release_withoutAcquire_throws() {
+    new TripleBuffer<Item>(null).release();
+  }
+
+  @Test
+  public void stress_singleProducerSingleConsumer() throws Exception {
+    runStress(200_000);
+  }
+
+  @Test
+  public void stress_manyIndependentPairsConcurrently() throws Exception {
+    int pairs = Math.max(2, Runtime.getRuntime().availableProcessors());
+    List<Thread> threads = new ArrayList<>();
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    for (int i = 0; i < pairs; i++) {
+      Thread t = new Thread(() -> {
+        try {
+          runStress(50_000);
+        } catch (Throwable e) {
+          failure.compareAndSet(null, e);
+        }
+      });
+      threads.add(t);
+      t.start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    if (failure.get() != null) {
+      throw new AssertionError(failure.get());
+    }
+  }
+
+  /**
+   * One producer and one consumer hammer the buffer. Checks that the consumer never goes back in
+   * sequence, never holds a recycled item, and every published item is recycled exactly once.
+   */
+  private static void runStress(int count) throws Exception {
+    CountingRecycler recycler = new CountingRecycler();
+    TripleBuffer<Item> buffer = new TripleBuffer<>(recycler);
+    CountDownLatch start = new CountDownLatch(1);
+    AtomicBoolean producerDone = new AtomicBoolean();
+    AtomicReference<String> consumerError = new AtomicReference<>();
+    ConcurrentHashMap<Long, Boolean> consumedSeqs = new ConcurrentHashMap<>();
+
+    Thread producer = new Thread(() -> {
+      awaitQuietly(start);
+      for (long seq = 1; seq <= count; seq++) {
+        buffer.publish(new Item(seq));
+      }
+      producerDone.set(true);
+    });
+
+    Thread consumer = new Thread(() -> {
+      awaitQuietly(start);
+      long lastSeq = 0;
+      while (true) {
+        boolean done = producerDone.get();
+        Item item = buffer.acquire();
+        if (item != null) {
+          if (item.recycled.get()) {
+            consumerError.compareAndSet(null, "acquired recycled item " + item.seq);
+          }
+          if (item.seq < lastSeq) {
+            consumerError.compareAndSet(null, "went backwards " + lastSeq + " -> " + item.seq);
+          }
+          if (item.seq != lastSeq) {
+            consumedSeqs.put(item.seq, Boolean.TRUE);
+          }
+          lastSeq = item.seq;
+          if (item.recycled.get()) {
+            consumerError.compareAndSet(null, "item " + item.seq + " recycled while held");
+          }
+        }
+        buffer.release();
+        if (done && !buffer.hasPending()) {
+          break;
+        }
+      }
+    });
+
+    producer.start();
+    consumer.start();
+    start.countDown();
+    producer.join();
+    consumer.join();
+
+    assertNull(consumerError.get(), consumerError.get());
+    assertNull(recycler.error.get(), recycler.error.get());
+    assertEquals(count, buffer.getPublishedCount());
+    assertEquals(consumedSeqs.size(), buffer.getConsumedCount());
+    assertEquals(count, buffer.getConsumedCount() + buffer.getDroppedCount());
+    assertTrue(consumedSeqs.containsKey((long) count));
+
+    buffer.clear();
+    assertNull(recycler.error.get(), recycler.error.get());
+    assertEquals("every item recycled exactly once", count, recycler.recycledSeqs.size());
+  }
+
+  private static void awaitQuietly(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,133 @@
+package net.pixpark.fbexample.beautypanel;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class BackgroundImageCacheTest {
+  private final List<String> mReleased = new ArrayList<>();
+
+  private BackgroundImageCache<String> newCache(int maxEntries) {
+    return new BackgroundImageCache<>(mReleased::add, maxEntries);
+  }
+
+  /** What BeautyParamApplier does: load on a miss, put from the worker, then acquire again. */
+  private static String select(BackgroundImageCache<String> cache, String key) {
+    String value = cache.acquireCached(key);
+    if (value == null) {
+      cache.put(key, key + "#" + cache.getLoadCount());
+      value = cache.acquireCached(key);
+    }
+    return value;
+  }
+
+  @Test
+  public void reselect_reusesDecodedValue() {
+    BackgroundImageCache<String> cache = newCache(3);
+
+    String first = select(cache, "preset");
+    cache.releaseInUse();
+    select(cache, "beach");
+    String again = select(cache, "preset");
+
+    assertSame(first, again);
+    assertEquals(2, cache.getLoadCount());
+    assertEquals(3, cache.getHitCount());
+  }
+
+  @Test
+  public void acquireCached_onMiss_marksNothingInUse() {
+    BackgroundImageCache<String> cache = newCache(3);
+    cache.put("a", "a#0");
+
+    assertNull(cache.acquireCached("b"));
+    cache.trim();
+
+    assertEquals(0, cache.size());
+    assertEquals("a#0", mReleased.get(0));
+  }
+
+  @Test
+  public void eviction_releasesLeastRecentlyUsed_butNotInUse() {
+    BackgroundImageCache<String> cache = newCache(2);
+
+    select(cache, "a");
+    select(cache, "b");
+    select(cache, "a");
+    select(cache, "c");
+
+    assertEquals(1, mReleased.size());
+    assertEquals("b#1", mReleased.get(0));
+    assertEquals(2, cache.size());
+  }
+
+  @Test
+  public void trim_keepsOnlyTheBackgroundInUse() {
+    BackgroundImageCache<String> cache = newCache(3);
+    select(cache, "a");
+    select(cache, "b");
+
+    cache.trim();
+
+    assertEquals(1, cache.size());
+    assertEquals("a#0", mReleased.get(0));
+    assertEquals("b#1", cache.acquireCached("b"));
+
+    cache.releaseInUse();
+    cache.trim();
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void put_fromWorker_isPickedUpByAcquireCached() {
+    BackgroundImageCache<String> cache = newCache(1);
+    select(cache, "preset@720x1280");
+
+    assertNull(cache.acquireCached("preset@1080x1920"));
+    cache.put("preset@1080x1920", "scaled");
+    // Over budget, but neither the one in use nor the new one is dropped
+    assertEquals(2, cache.size());
+
+    assertEquals("scaled", cache.acquireCached("preset@1080x1920"));
+    cache.trim();
+    assertEquals(1, cache.size());
+    assertEquals("preset@720x1280#0", mReleased.get(0));
+  }
+
+  @Test
+  public void put_doesNotReplaceTheValueInUse() {
+    BackgroundImageCache<String> cache = newCache(3);
+    String inUse = select(cache, "a");
+
+    cache.put("a", "duplicate");
+
+    assertSame(inUse, cache.acquireCached("a"));
+    assertEquals("duplicate", mReleased.get(0));
+  }
+
+  @Test
+  public void put_replacesAValueNotInUse() {
+    BackgroundImageCache<String> cache = newCache(3);
+    cache.put("a", "old");
+
+    cache.put("a", "new");
+
+    assertEquals("new", cache.acquireCached("a"));
+    assertEquals("old", mReleased.get(0));
+  }
+
+  @Test
+  public void clear_releasesEverything() {
+    BackgroundImageCache<String> cache = newCache(3);
+    select(cache, "a");
+    select(cache, "b");
+
+    cache.clear();
+
+    assertEquals(2, mReleased.size());
+    assertEquals(2, cache.getReleaseCount());
+    assertEquals(0, cache.size());
+  }
+}
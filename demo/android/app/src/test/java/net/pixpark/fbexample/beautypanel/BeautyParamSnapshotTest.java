@@ -0,0 +1,128 @@
+package net.pixpark.fbexample.beautypanel;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class BeautyParamSnapshotTest {
+  @Test
+  public void with_sliderValues_areKeptPerFunction() {
+    BeautyParamSnapshot snapshot = BeautyParamSnapshot.EMPTY
+        .with("beauty", "white", 0.5f)
+        .with("beauty", "smooth", 0.3f)
+        .with("beauty", "white", 0.7f);
+
+    assertEquals(0.7f, snapshot.getValue("beauty", "white"), 0f);
+    assertEquals(0.3f, snapshot.getValue("beauty", "smooth"), 0f);
+    assertEquals(2, snapshot.size());
+  }
+
+  @Test
+  public void with_zero_equalsReset() {
+    BeautyParamSnapshot snapshot = BeautyParamSnapshot.EMPTY
+        .with("reshape", "thin_face", 0.4f)
+        .with("reshape", "thin_face", 0.0f);
+
+    assertEquals(BeautyParamSnapshot.EMPTY, snapshot);
+    assertTrue(snapshot.isEmpty());
+  }
+
+  @Test
+  public void with_filter_keepsSingleSelection() {
+    BeautyParamSnapshot snapshot = BeautyParamSnapshot.EMPTY
+        .with("filter", "initial_heart", 0.8f)
+        .with("filter", "vivid", 0.6f);
+
+    assertEquals("vivid", snapshot.getSelection("filter"));
+    assertEquals(0.6f, snapshot.getValue("filter", "vivid"), 0f);
+    assertEquals(0.0f, snapshot.getValue("filter", "initial_heart"), 0f);
+    assertEquals(1, snapshot.size());
+  }
+
+  @Test
+  public void with_filterAtZero_turnsFilterOff() {
+    BeautyParamSnapshot snapshot = BeautyParamSnapshot.EMPTY
+        .with("filter", "vivid", 0.6f)
+        .with("filter", "other", 0.0f);
+
+    assertNull(snapshot.getSelection("filter"));
+  }
+
+  @Test
+  public void with_virtualBackground_ignoresValue() {
+    BeautyParamSnapshot snapshot = BeautyParamSnapshot.EMPTY.with("virtual_bg", "blur", 0.0f);
+    assertEquals("blur", snapshot.getSelection("virtual_bg"));
+    assertNull(snapshot.with("virtual_bg", "none", 1.0f).getSelection("virtual_bg"));
+  }
+
+  @Test
+  public void withoutTab_removesOnlyThatTab() {
+    BeautyParamSnapshot snapshot = BeautyParamSnapshot.EMPTY
+        .with("beauty", "white", 0.5f)
+        .with("reshape", "chin", 0.2f)
+        .with("filter", "vivid", 0.6f)
+        .withoutTab("beauty")
+        .withoutTab("filter");
+
+    assertEquals(0.0f, snapshot.getValue("beauty", "white"), 0f);
+    assertEquals(0.2f, snapshot.getValue("reshape", "chin"), 0f);
+    assertNull(snapshot.getSelection("filter"));
+  }
+
+  @Test
+  public void equalState_reachedInDifferentOrder_isEqual() {
+    BeautyParamSnapshot a = BeautyParamSnapshot.EMPTY
+        .with("beauty", "white", 0.5f)
+        .with("makeup", "lipstick", 0.3f);
+    BeautyParamSnapshot b = BeautyParamSnapshot.EMPTY
+        .with("makeup", "lipstick", 0.3f)
+        .with("beauty", "smooth", 0.9f)
+        .with("beauty", "white", 0.5f)
+        .with("beauty", "smooth", 0.0f);
+
+    assertEquals(a, b);
+    assertEquals(a.hashCode(), b.hashCode());
+    assertEquals(a.getParams(), b.getParams());
+  }
+
+  @Test
+  public void diffTo_replayedOnCurrent_reachesTarget() {
+    BeautyParamSnapshot current = BeautyParamSnapshot.EMPTY
+        .with("beauty", "white", 0.5f)
+        .with("beauty", "smooth", 0.2f)
+        .with("filter", "vivid", 0.6f)
+        .with("sticker", "rabbit", 1.0f)
+        .with("virtual_bg", "blur", 1.0f);
+    BeautyParamSnapshot target = BeautyParamSnapshot.EMPTY
+        .with("beauty", "white", 0.5f)
+        .with("reshape", "chin", 0.3f)
+        .with("filter", "initial_heart", 0.6f)
+        .with("sticker", "rabbit", 1.0f);
+
+    BeautyParamSnapshot replayed = current;
+    for (BeautyParamSnapshot.Param change : current.diffTo(target)) {
+      replayed = replayed.with(change.tab, change.function, change.value);
+    }
+
+    assertEquals(target, replayed);
+    // smooth off, virtual_bg off, chin on, filter switched; white and sticker untouched
+    assertEquals(4, current.diffTo(target).size());
+  }
+
+  @Test
+  public void diffTo_reset_onlyTouchesSetParams() {
+    BeautyParamSnapshot current = BeautyParamSnapshot.EMPTY
+        .with("beauty", "white", 0.5f)
+        .with("makeup", "blush", 0.4f);
+
+    assertEquals(2, current.diffTo(BeautyParamSnapshot.EMPTY).size());
+    assertTrue(current.diffTo(current).isEmpty());
+  }
+
+  @Test
+  public void unchangedUpdate_returnsSameInstance() {
+    BeautyParamSnapshot snapshot = BeautyParamSnapshot.EMPTY.with("beauty", "white", 0.5f);
+    assertSame(snapshot, snapshot.with("beauty", "white", 0.5f));
+    assertSame(snapshot, snapshot.withoutTab("reshape"));
+  }
+}
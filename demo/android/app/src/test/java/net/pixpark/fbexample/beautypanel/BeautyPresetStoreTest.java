@@ -0,0 +1,29 @@
+package net.pixpark.fbexample.beautypanel;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class BeautyPresetStoreTest {
+  @Test
+  public void encodeFileName_keepsPlainNames() {
+    assertEquals("party_2-b", BeautyPresetStore.encodeFileName("party_2-b"));
+  }
+
+  @Test
+  public void encodeFileName_neverMapsTwoNamesToOneFile() {
+    String[] names = {"a/b", "a_b", "a b", "a%2Fb", "a-b"};
+    for (int i = 0; i < names.length; i++) {
+      for (int j = i + 1; j < names.length; j++) {
+        assertNotEquals(
+            BeautyPresetStore.encodeFileName(names[i]), BeautyPresetStore.encodeFileName(names[j]));
+      }
+    }
+  }
+
+  @Test
+  public void encodeFileName_cannotLeaveTheDirectory() {
+    assertEquals("%2E%2E%2Fx", BeautyPresetStore.encodeFileName("../x"));
+    assertEquals("%E6%99%9A", BeautyPresetStore.encodeFileName("\u665a"));
+  }
+}
@@ -0,0 +1,67 @@
+package net.pixpark.fbexample.beautypanel;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+import org.junit.Test;
+
+public class BeautyPresetTest {
+  private static final BeautyParamSnapshot LOOK = BeautyParamSnapshot.EMPTY
+      .with("beauty", "white", 0.5f)
+      .with("beauty", "smooth", 0.7f)
+      .with("reshape", "big_eye", 0.33f)
+      .with("makeup", "lipstick", 0.25f)
+      .with("filter", "vivid", 0.8f)
+      .with("sticker", "rabbit", 1.0f)
+      .with("virtual_bg", "blur", 1.0f);
+
+  @Test
+  public void roundTrip_keepsEveryParam() throws IOException {
+    BeautyPreset preset = new BeautyPreset("party", LOOK);
+
+    BeautyPreset decoded = BeautyPreset.fromBytes(preset.toBytes());
+
+    assertEquals(preset, decoded);
+    assertEquals(0.33f, decoded.snapshot.getValue("reshape", "big_eye"), 0f);
+    assertEquals("rabbit", decoded.snapshot.getSelection("sticker"));
+  }
+
+  @Test
+  public void toBytes_isCompact() {
+    byte[] data = new BeautyPreset("party", LOOK).toBytes();
+
+    assertTrue("size " + data.length, data.length < 200);
+    assertTrue(new BeautyPreset("empty", BeautyParamSnapshot.EMPTY).toBytes().length < 16);
+  }
+
+  @Test
+  public void capture_dropsGalleryBackground() {
+    BeautyParamSnapshot current = LOOK.with("virtual_bg", "image", 1.0f);
+
+    BeautyPreset preset = BeautyPreset.capture("mine", current);
+
+    assertNull(preset.snapshot.getSelection("virtual_bg"));
+    assertEquals(LOOK.withoutTab("virtual_bg"), preset.snapshot);
+  }
+
+  @Test
+  public void fromBytes_rejectsTruncatedData() {
+    byte[] data = new BeautyPreset("party", LOOK).toBytes();
+
+    for (int length = 0; length < data.length; length++) {
+      try {
+        BeautyPreset.fromBytes(Arrays.copyOf(data, length));
+        fail("accepted " + length + " of " + data.length + " bytes");
+      } catch (IOException expected) {
+      }
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void fromBytes_rejectsUnknownVersion() throws IOException {
+    byte[] data = new BeautyPreset("party", LOOK).toBytes();
+    data[0] = 99;
+    BeautyPreset.fromBytes(data);
+  }
+}
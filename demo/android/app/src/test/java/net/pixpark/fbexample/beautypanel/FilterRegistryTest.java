@@ -0,0 +1,147 @@
+package net.pixpark.fbexample.beautypanel;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Test;
+
+public class FilterRegistryTest {
+  // Every fake filter costs the same, so budgets read as filter counts
+  private static final long FILTER_BYTES = 100;
+
+  /** Records engine calls; loads finish on {@link #finish()}, ids in {@code missing} fail. */
+  private static final class FakeBackend implements FilterRegistry.Backend {
+    final Set<String> missing = new HashSet<>();
+    final Set<String> engine = new HashSet<>();
+    final List<String> calls = new ArrayList<>();
+    final Map<String, FilterRegistry.Callback> loading = new LinkedHashMap<>();
+
+    @Override
+    public void load(String id, FilterRegistry.Callback done) {
+      calls.add("register " + id);
+      loading.put(id, done);
+    }
+
+    void finish() {
+      List<Map.Entry<String, FilterRegistry.Callback>> loads = new ArrayList<>(loading.entrySet());
+      loading.clear();
+      for (Map.Entry<String, FilterRegistry.Callback> load : loads) {
+        if (missing.contains(load.getKey())) {
+          load.getValue().onLoaded(-1);
+        } else {
+          engine.add(load.getKey());
+          load.getValue().onLoaded(FILTER_BYTES);
+        }
+      }
+    }
+
+    @Override
+    public void unregister(String id) {
+      calls.add("unregister " + id);
+      engine.remove(id);
+    }
+  }
+
+  /** Selects a filter the way the applier does: again once its load completed. */
+  private static boolean use(FilterRegistry registry, FakeBackend backend, String id) {
+    if (registry.acquire(id)) {
+      return true;
+    }
+    backend.finish();
+    return registry.acquire(id);
+  }
+
+  @Test
+  public void nothingIsRegisteredUntilUsed() {
+    FakeBackend backend = new FakeBackend();
+    FilterRegistry registry = new FilterRegistry(backend, 4 * FILTER_BYTES);
+
+    assertTrue(backend.calls.isEmpty());
+    assertTrue(use(registry, backend, "vivid"));
+    assertTrue(use(registry, backend, "vivid"));
+
+    assertEquals(Arrays.asList("register vivid"), backend.calls);
+  }
+
+  @Test
+  public void filterIsNotAvailableWhileLoading_andLoadsOnce() {
+    FakeBackend backend = new FakeBackend();
+    FilterRegistry registry = new FilterRegistry(backend, 4 * FILTER_BYTES);
+
+    assertFalse(registry.acquire("vivid"));
+    assertFalse(registry.acquire("vivid"));
+    assertTrue(registry.isLoading("vivid"));
+    assertFalse(registry.isRegistered("vivid"));
+
+    backend.finish();
+
+    assertTrue(registry.isRegistered("vivid"));
+    assertTrue(registry.acquire("vivid"));
+    assertEquals(Arrays.asList("register vivid"), backend.calls);
+  }
+
+  @Test
+  public void leastRecentlyUsed_isUnregisteredOverTheLimit() {
+    FakeBackend backend = new FakeBackend();
+    FilterRegistry registry = new FilterRegistry(backend, 2 * FILTER_BYTES);
+
+    use(registry, backend, "a");
+    use(registry, backend, "b");
+    use(registry, backend, "a");
+    use(registry, backend, "c");
+
+    assertEquals(new HashSet<>(Arrays.asList("a", "c")), backend.engine);
+    assertEquals(backend.engine, registry.getRegistered());
+    assertEquals(1, registry.getEvictionCount());
+    assertEquals(2 * FILTER_BYTES, registry.getBytes());
+  }
+
+  @Test
+  public void flickingBack_isCountedAsHit() {
+    FakeBackend backend = new FakeBackend();
+    FilterRegistry registry = new FilterRegistry(backend, 4 * FILTER_BYTES);
+
+    use(registry, backend, "a");
+    use(registry, backend, "b");
+    use(registry, backend, "a");
+    use(registry, backend, "b");
+
+    assertEquals(2, registry.getRegisterCount());
+    assertEquals(0.5f, registry.getHitRate(), 0f);
+  }
+
+  @Test
+  public void switchingFilters_neverUnregistersThePreviousOne() {
+    FakeBackend backend = new FakeBackend();
+    // Below the minimum; the filter switched away from must survive the switch
+    FilterRegistry registry = new FilterRegistry(backend, FILTER_BYTES);
+
+    use(registry, backend, "a");
+    use(registry, backend, "b");
+
+    assertTrue(backend.engine.contains("a"));
+    assertTrue(backend.engine.contains("b"));
+  }
+
+  @Test
+  public void failedRegistration_isNotCached() {
+    FakeBackend backend = new FakeBackend();
+    backend.missing.add("broken");
+    FilterRegistry registry = new FilterRegistry(backend, 4 * FILTER_BYTES);
+
+    assertFalse(registry.acquire("broken"));
+    backend.finish();
+    // Selecting it again retries the load
+    assertFalse(registry.acquire("broken"));
+    backend.finish();
+
+    assertFalse(registry.isRegistered("broken"));
+    assertEquals(2, backend.calls.size());
+  }
+}
@@ -0,0 +1,192 @@
+package net.pixpark.fbexample.beautypanel;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class ParamDispatcherTest {
+  private static final String[] RESET_ALL_TABS = {"beauty", "reshape", "makeup", "virtual_bg", "filter"};
+
+  /** Stands in for BeautyParamApplier + engine: tracks the resulting state and call count. */
+  private static final class FakeEngine implements ParamDispatcher.ParamSink {
+    BeautyParamSnapshot state = BeautyParamSnapshot.EMPTY;
+    int calls = 0;
+
+    @Override
+    public void apply(String tab, String function, float value) {
+      calls++;
+      state = state.with(tab, function, value);
+    }
+
+    @Override
+    public void resetTab(String tab) {
+      calls++;
+      state = state.withoutTab(tab);
+    }
+
+    @Override
+    public void resetAll() {
+      calls++;
+      for (String tab : RESET_ALL_TABS) {
+        state = state.withoutTab(tab);
+      }
+    }
+
+    @Override
+    public void applySnapshot(BeautyParamSnapshot snapshot) {
+      calls++;
+      state = snapshot;
+    }
+  }
+
+  @Test
+  public void drag_isCoalescedToLatestValue() {
+    FakeEngine engine = new FakeEngine();
+    ParamDispatcher dispatcher = new ParamDispatcher(engine);
+
+    for (int step = 1; step <= 100; step++) {
+      dispatcher.post("beauty", "smooth", step / 100.0f);
+    }
+    assertEquals(0, engine.calls);
+
+    assertEquals(1, dispatcher.flush());
+    assertEquals(1, engine.calls);
+    assertEquals(1.0f, engine.state.getValue("beauty", "smooth"), 0f);
+    assertEquals(100, dispatcher.getPostedCount());
+    assertEquals(1, dispatcher.getAppliedCount());
+  }
+
+  @Test
+  public void flush_withNothingPending_doesNothing() {
+    FakeEngine engine = new FakeEngine();
+    ParamDispatcher dispatcher = new ParamDispatcher(engine);
+
+    assertEquals(0, dispatcher.flush());
+    assertEquals(0, dispatcher.getFlushCount());
+    assertEquals(0, engine.calls);
+  }
+
+  @Test
+  public void filterSwitch_keepsTheLastSelection() {
+    FakeEngine engine = new FakeEngine();
+    ParamDispatcher dispatcher = new ParamDispatcher(engine);
+
+    // What the panel sends when switching from "a" to "b" and dragging "b"
+    dispatcher.post("filter", "b", 0.8f);
+    dispatcher.post("filter", "a", 0.0f);
+    dispatcher.post("filter", "b", 0.5f);
+    dispatcher.flush();
+
+    assertEquals("b", engine.state.getSelection("filter"));
+    assertEquals(0.5f, engine.state.getValue("filter", "b"), 0f);
+  }
+
+  @Test
+  public void updateAfterReset_survivesTheReset() {
+    FakeEngine engine = new FakeEngine();
+    ParamDispatcher dispatcher = new ParamDispatcher(engine);
+
+    dispatcher.post("beauty", "white", 0.3f);
+    dispatcher.post("reshape", "chin", 0.6f);
+    dispatcher.postResetAll();
+    dispatcher.post("beauty", "white", 0.4f);
+    dispatcher.flush();
+
+    assertEquals(0.4f, engine.state.getValue("beauty", "white"), 0f);
+    assertEquals(0.0f, engine.state.getValue("reshape", "chin"), 0f);
+  }
+
+  @Test
+  public void snapshot_supersedesEarlierUpdates() {
+    FakeEngine engine = new FakeEngine();
+    ParamDispatcher dispatcher = new ParamDispatcher(engine);
+    BeautyParamSnapshot preset = BeautyParamSnapshot.EMPTY
+        .with("beauty", "smooth", 0.7f)
+        .with("filter", "vivid", 0.5f);
+
+    dispatcher.post("beauty", "white", 0.3f);
+    dispatcher.post("reshape", "chin", 0.6f);
+    dispatcher.postSnapshot(preset);
+    dispatcher.post("beauty", "smooth", 0.8f);
+
+    assertEquals(2, dispatcher.flush());
+    assertEquals(2, engine.calls);
+    assertEquals(preset.with("beauty", "smooth", 0.8f), engine.state);
+  }
+
+  @Test
+  public void task_runsOnceInFlush_andSurvivesSnapshot() {
+    FakeEngine engine = new FakeEngine();
+    ParamDispatcher dispatcher = new ParamDispatcher(engine);
+    AtomicInteger runs = new AtomicInteger();
+
+    dispatcher.postTask("background", runs::incrementAndGet);
+    dispatcher.postTask("background", runs::incrementAndGet);
+    dispatcher.postSnapshot(BeautyParamSnapshot.EMPTY.with("virtual_bg", "preset", 1.0f));
+    assertEquals(0, runs.get());
+
+    assertEquals(2, dispatcher.flush());
+    assertEquals(1, runs.get());
+    assertEquals("preset", engine.state.getSelection("virtual_bg"));
+  }
+
+  @Test
+  public void listener_firesOncePerBatch() {
+    FakeEngine engine = new FakeEngine();
+    ParamDispatcher dispatcher = new ParamDispatcher(engine);
+    AtomicInteger pending = new AtomicInteger();
+    dispatcher.setListener(pending::incrementAndGet);
+
+    dispatcher.post("beauty", "white", 0.1f);
+    dispatcher.post("beauty", "white", 0.2f);
+    dispatcher.postResetTab("makeup");
+    assertEquals(1, pending.get());
+
+    dispatcher.flush();
+    dispatcher.post("beauty", "white", 0.3f);
+    assertEquals(2, pending.get());
+  }
+
+  @Test
+  public void randomSequences_endInTheSameStateAsDirectApply() {
+    String[][] functions = {
+        {"beauty", "white"}, {"beauty", "smooth"}, {"reshape", "chin"}, {"makeup", "blush"},
+        {"filter", "a"}, {"filter", "b"}, {"sticker", "s"}, {"virtual_bg", "blur"},
+        {"virtual_bg", "none"},
+    };
+    Random random = new Random(42);
+    for (int run = 0; run < 500; run++) {
+      FakeEngine direct = new FakeEngine();
+      FakeEngine dispatched = new FakeEngine();
+      ParamDispatcher dispatcher = new ParamDispatcher(dispatched);
+
+      int length = 1 + random.nextInt(40);
+      for (int i = 0; i < length; i++) {
+        int kind = random.nextInt(20);
+        if (kind == 0) {
+          direct.resetAll();
+          dispatcher.postResetAll();
+        } else if (kind == 1) {
+          String tab = functions[random.nextInt(functions.length)][0];
+          direct.resetTab(tab);
+          dispatcher.postResetTab(tab);
+        } else {
+          String[] f = functions[random.nextInt(functions.length)];
+          float value = random.nextInt(3) == 0 ? 0.0f : random.nextInt(100) / 100.0f;
+          direct.apply(f[0], f[1], value);
+          dispatcher.post(f[0], f[1], value);
+        }
+        // Flush at random points, like frames landing mid-drag
+        if (random.nextInt(8) == 0) {
+          dispatcher.flush();
+        }
+      }
+      dispatcher.flush();
+
+      assertEquals("run " + run, direct.state, dispatched.state);
+      assertTrue(dispatched.calls <= direct.calls);
+    }
+  }
+}
@@ -0,0 +1,111 @@
+package net.pixpark.fbexample.beautypanel;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+public class StickerCatalogTest {
+  /** Holds loads until the test completes them, like the worker pool would later. */
+  private static final class FakeLoader implements StickerCatalog.Loader {
+    final List<String> requested = new ArrayList<>();
+    final Map<String, StickerCatalog.Callback> pending = new HashMap<>();
+
+    @Override
+    public void load(String id, String path, StickerCatalog.Callback done) {
+      requested.add(id);
+      pending.put(id, done);
+    }
+
+    void finish(String id, boolean registered) {
+      pending.remove(id).onLoaded(registered);
+    }
+  }
+
+  private static Map<String, String> paths(String... ids) {
+    Map<String, String> paths = new LinkedHashMap<>();
+    for (String id : ids) {
+      paths.put(id, "stickers/face/" + id + "/" + id + ".fbd");
+    }
+    return paths;
+  }
+
+  @Test
+  public void scan_findsPackagesInEveryCategory() throws IOException {
+    Map<String, String[]> tree = new HashMap<>();
+    tree.put("stickers", new String[] {"face", "hand"});
+    tree.put("stickers/face", new String[] {"rabbit", "black_glass", "empty"});
+    tree.put("stickers/face/rabbit", new String[] {"rabbit.fbd"});
+    tree.put("stickers/face/black_glass", new String[] {"black_glass.fbd", "preview.png"});
+    tree.put("stickers/face/empty", new String[0]);
+    tree.put("stickers/hand", new String[] {"heart"});
+    tree.put("stickers/hand/heart", new String[] {"heart.fbd"});
+
+    Map<String, String> found = StickerCatalog.scan(
+        path -> tree.getOrDefault(path, new String[0]), "stickers");
+
+    assertEquals(Arrays.asList("black_glass", "rabbit", "heart"), new ArrayList<>(found.keySet()));
+    assertEquals("stickers/hand/heart/heart.fbd", found.get("heart"));
+  }
+
+  @Test
+  public void select_loadsOnDemand_andPrefetchesNeighbours() {
+    FakeLoader loader = new FakeLoader();
+    StickerCatalog catalog = new StickerCatalog(paths("a", "b", "c", "d"), loader);
+    List<String> ready = new ArrayList<>();
+    catalog.setListener(ready::add);
+
+    assertTrue(loader.requested.isEmpty());
+    assertFalse(catalog.select("b"));
+    assertEquals(Arrays.asList("b", "a", "c"), loader.requested);
+
+    loader.finish("b", true);
+    loader.finish("c", true);
+    assertEquals(Arrays.asList("b", "c"), ready);
+
+    // The prefetched neighbour is ready on the first tap
+    assertTrue(catalog.select("c"));
+    assertEquals(Arrays.asList("b", "a", "c", "d"), loader.requested);
+  }
+
+  @Test
+  public void selectWhileLoading_doesNotLoadTwice() {
+    FakeLoader loader = new FakeLoader();
+    StickerCatalog catalog = new StickerCatalog(paths("a"), loader);
+
+    catalog.select("a");
+    catalog.select("a");
+
+    assertEquals(1, loader.requested.size());
+  }
+
+  @Test
+  public void failedSticker_isRetriedOnlyWhenSelected() {
+    FakeLoader loader = new FakeLoader();
+    StickerCatalog catalog = new StickerCatalog(paths("a", "b"), loader);
+
+    catalog.select("a");
+    loader.finish("a", true);
+    loader.finish("b", false);
+    catalog.select("a");
+    assertEquals(Arrays.asList("a", "b"), loader.requested);
+
+    assertFalse(catalog.select("b"));
+    assertEquals(Arrays.asList("a", "b", "b"), loader.requested);
+  }
+
+  @Test
+  public void unknownSticker_isIgnored() {
+    FakeLoader loader = new FakeLoader();
+    StickerCatalog catalog = new StickerCatalog(paths("a"), loader);
+
+    assertFalse(catalog.select("missing"));
+    assertTrue(loader.requested.isEmpty());
+  }
+}